@@ -0,0 +1,99 @@
+package com.qiqv.demo3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//
+// 一轮增量保存的耗时：所有文件都被修改，CapturePipeline 读取、与 base 版本对比、写入 diff 和文件历史。
+// 每次调用前把下一轮的修改写到磁盘上（不计入耗时），每轮的内容都不同，不会因为哈希相同被跳过
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CaptureBenchmark {
+    private static final long BASE_TIME = 1700000000000L; // 合成历史的起始时刻
+
+    @Param({"100", "1000"})
+    public int fileCount;
+
+    @Param({"200", "2000"})
+    public int fileLines;
+
+    @Param({"0.01", "0.1"})
+    public double editDensity;
+
+    private SyntheticProject project;
+    private CapturePipeline pipeline;
+    private List<List<String>> baseContents;
+    private List<CapturePipeline.Task> tasks;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void createProject() throws IOException {
+        project = new SyntheticProject(fileCount, fileLines, editDensity);
+        SnapshotStore store = SnapshotStore.forRoot(project.snapshotRoot);
+        pipeline = new CapturePipeline(store, LargeFiles.Settings.load(store.getSnapshotRoot()));
+
+        // 与 VersionManager.storeVersion 相同，先保存一个 base 版本
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        baseContents = new ArrayList<>();
+        for (String relativePath : project.relativePaths) {
+            contents.put(relativePath, Files.readAllBytes(project.path(relativePath)));
+            baseContents.add(project.readLines(relativePath));
+        }
+        Map<String, String> hashes = store.putBlobs(contents);
+        VersionIndex index = new VersionIndex();
+        for (String relativePath : project.relativePaths) {
+            index.put(relativePath, new VersionIndex.Entry(hashes.get(relativePath), contents.get(relativePath).length, BASE_TIME));
+        }
+        String versionName = "Version_" + format(BASE_TIME);
+        store.writeManifest(versionName, index);
+        store.getHistory().recordVersion(BASE_TIME, index);
+
+        tasks = new ArrayList<>();
+        for (String relativePath : project.relativePaths) {
+            String originalFilePath = project.snapshotRoot + "/version/" + versionName + "/" + relativePath;
+            tasks.add(new CapturePipeline.Task(project.path(relativePath).getFileName().toString(), relativePath,
+                    originalFilePath, project.path(relativePath).toString(), hashes.get(relativePath), null));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void editFiles() throws IOException {
+        round++;
+        project.applyEdits(baseContents, round);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        project.delete();
+    }
+
+    @Benchmark
+    public CapturePipeline.Result captureRound() throws IOException {
+        long timestamp = BASE_TIME + round * 1000L;
+        return pipeline.run(tasks, "diff_" + format(timestamp), timestamp);
+    }
+
+    private static String format(long timestamp) {
+        return new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date(timestamp));
+    }
+}
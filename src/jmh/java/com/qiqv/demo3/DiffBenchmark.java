@@ -0,0 +1,85 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.UnifiedDiffUtils;
+import com.github.difflib.patch.Patch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//
+// 查看 diff 时的解析和还原：
+//   generateDiff    与 CapturePipeline 相同，用 HistogramDiff 对比两个版本并生成 unified diff
+//   parseDiffFile   ShowDiff.parseDiffFile 读取磁盘上的 .diff 文件
+//   applyPatch      ShowDiff.applyPatch 流式读取原始文件和 .diff 文件并应用（显示和恢复文件时的还原）
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffBenchmark {
+    @Param({"200", "2000", "20000"})
+    public int fileLines;
+
+    @Param({"0.01", "0.1"})
+    public double editDensity;
+
+    private SyntheticProject project;
+    private List<String> originalLines;
+    private List<String> editedLines;
+    private String originalPath;
+    private String diffPath;
+
+    @Setup(Level.Trial)
+    public void createDiff() throws IOException {
+        project = new SyntheticProject(1, fileLines, editDensity);
+        String relativePath = project.relativePaths.get(0);
+        originalPath = project.path(relativePath).toString();
+        originalLines = project.readLines(relativePath);
+        editedLines = project.edit(originalLines, 1);
+
+        Path diffFile = project.projectRoot.resolve("File0.java.diff");
+        Files.write(diffFile, String.join("\n", generateDiff()).getBytes(StandardCharsets.UTF_8));
+        diffPath = diffFile.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        project.delete();
+    }
+
+    @Benchmark
+    public List<String> generateDiff() {
+        Patch<String> patch = HistogramDiff.diff(originalLines, editedLines);
+        return UnifiedDiffUtils.generateUnifiedDiff(originalPath, originalPath, originalLines, patch, 1);
+    }
+
+    @Benchmark
+    public ShowDiff.Diff parseDiffFile() {
+        return ShowDiff.parseDiffFile(diffPath);
+    }
+
+    @Benchmark
+    public String applyPatch() throws IOException {
+        try (BufferedReader original = ShowDiff.openReader(originalPath);
+             ShowDiff.HunkReader hunks = new ShowDiff.HunkReader(ShowDiff.openReader(diffPath))) {
+            StringWriter newContent = new StringWriter();
+            ShowDiff.applyPatch(original, hunks, newContent);
+            return newContent.toString();
+        }
+    }
+}
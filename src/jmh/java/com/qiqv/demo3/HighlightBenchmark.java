@@ -0,0 +1,65 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.patch.Patch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//
+// 查看 diff 时的高亮：两个 JTextArea 中分别是原始内容和修改后的内容，
+//   highlightPatch  直接按 Patch 高亮（与 MainWindow 相同，Patch 由 HistogramDiff 生成）
+// 需要 -Djava.awt.headless=true 运行，build.gradle 的 jmh 配置中已经加上
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HighlightBenchmark {
+    @Param({"200", "2000", "20000"})
+    public int fileLines;
+
+    @Param({"0.01", "0.1"})
+    public double editDensity;
+
+    private SyntheticProject project;
+    private List<String> originalLines;
+    private List<String> editedLines;
+    private Patch<String> patch;
+    private JTextArea textArea1;
+    private JTextArea textArea2;
+
+    @Setup(Level.Trial)
+    public void createTextAreas() throws IOException {
+        project = new SyntheticProject(1, fileLines, editDensity);
+        String relativePath = project.relativePaths.get(0);
+        originalLines = project.readLines(relativePath);
+        editedLines = project.edit(originalLines, 1);
+        patch = HistogramDiff.diff(originalLines, editedLines);
+
+        textArea1 = new JTextArea(String.join("\n", originalLines));
+        textArea2 = new JTextArea(String.join("\n", editedLines));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        project.delete();
+    }
+
+    @Benchmark
+    public int highlightPatch() throws BadLocationException {
+        HighLight.highlightPatch(originalLines, editedLines, patch, textArea1, textArea2);
+        return textArea1.getHighlighter().getHighlights().length;
+    }
+}
@@ -0,0 +1,111 @@
+package com.qiqv.demo3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//
+// 保存整个项目的耗时：
+//   walkProject   与 VersionManager.saveAllFilesInDirectory 相同的递归遍历，跳过 snapshot 文件夹
+//   copySnapshot  与 VersionManager.storeVersion 相同，按批读取文件、写入对象库并生成版本清单。
+//                 每次调用写入一个新的 snapshot 目录（不计入耗时），不会因为内容已存在而跳过写入
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotBenchmark {
+    private static final int STORE_BATCH_SIZE = 256; // 与 VersionManager 一致
+
+    @Param({"100", "1000", "5000"})
+    public int fileCount;
+
+    @Param({"200", "2000"})
+    public int fileLines;
+
+    private SyntheticProject project;
+    private Path snapshotsRoot; // 每次调用的 snapshot 目录都放在项目之外，不影响遍历
+    private SnapshotStore store;
+    private int copies;
+
+    @Setup(Level.Trial)
+    public void createProject() throws IOException {
+        project = new SyntheticProject(fileCount, fileLines, 0);
+        snapshotsRoot = Files.createTempDirectory("version-tracker-bench-snapshots");
+    }
+
+    @Setup(Level.Invocation)
+    public void createStore() throws IOException {
+        copies++;
+        Path snapshotRoot = snapshotsRoot.resolve("snapshot" + copies);
+        Files.createDirectories(snapshotRoot);
+        store = SnapshotStore.forRoot(snapshotRoot);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        project.delete();
+        SyntheticProject.deleteDirectory(snapshotsRoot);
+    }
+
+    @Benchmark
+    public List<Path> walkProject() {
+        List<Path> files = new ArrayList<>();
+        walk(project.projectRoot.toFile(), files);
+        return files;
+    }
+
+    private static void walk(File directory, List<Path> files) {
+        for (File file : directory.listFiles()) {
+            if (file.getName().equals("snapshot")) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                walk(file, files);
+            } else {
+                files.add(file.toPath());
+            }
+        }
+    }
+
+    @Benchmark
+    public VersionIndex copySnapshot() throws IOException {
+        List<Path> files = new ArrayList<>();
+        walk(project.projectRoot.toFile(), files);
+        VersionIndex index = new VersionIndex();
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (Path file : files) {
+            contents.put(project.projectRoot.relativize(file).toString(), Files.readAllBytes(file));
+            if (contents.size() >= STORE_BATCH_SIZE) {
+                flush(contents, index);
+            }
+        }
+        flush(contents, index);
+        store.writeManifest("Version_20240101_000000", index);
+        return index;
+    }
+
+    private void flush(Map<String, byte[]> contents, VersionIndex index) throws IOException {
+        Map<String, String> hashes = store.putBlobs(contents);
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            index.put(content.getKey(), new VersionIndex.Entry(hashes.get(content.getKey()), content.getValue().length, 0));
+        }
+        contents.clear();
+    }
+}
@@ -0,0 +1,105 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+//
+// 基准测试用的合成项目：在临时目录下生成 fileCount 个文件，每个文件 fileLines 行，
+// 按目录深度分散在若干层子目录中。edit 按 editDensity 修改每个文件中的一部分行，
+// 随机数种子固定，相同的参数每次生成的内容完全相同
+//
+public class SyntheticProject {
+    private static final int FILES_PER_DIRECTORY = 20; // 每个目录中的文件数
+    private static final long SEED = 20240501L;
+
+    public final Path projectRoot;
+    public final Path snapshotRoot;
+    public final List<String> relativePaths = new ArrayList<>();
+    private final int fileLines;
+    private final double editDensity;
+
+    public SyntheticProject(int fileCount, int fileLines, double editDensity) throws IOException {
+        this.projectRoot = Files.createTempDirectory("version-tracker-bench");
+        this.snapshotRoot = projectRoot.resolve("snapshot");
+        this.fileLines = fileLines;
+        this.editDensity = editDensity;
+        Files.createDirectories(snapshotRoot);
+        Random random = new Random(SEED);
+        for (int i = 0; i < fileCount; i++) {
+            // src/pkg3/sub1/File17.java 这样的多层目录
+            int directory = i / FILES_PER_DIRECTORY;
+            String relativePath = "src/pkg" + (directory % 10) + "/sub" + directory + "/File" + i + ".java";
+            relativePaths.add(relativePath);
+            Path file = projectRoot.resolve(relativePath);
+            Files.createDirectories(file.getParent());
+            Files.write(file, String.join("\n", generateLines(random, i)).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // 文件的初始内容，看起来像普通的源代码行
+    private List<String> generateLines(Random random, int fileIndex) {
+        List<String> lines = new ArrayList<>(fileLines);
+        for (int line = 0; line < fileLines; line++) {
+            lines.add("    int value" + line + " = compute(" + fileIndex + ", " + random.nextInt(100000) + "); // line " + line);
+        }
+        return lines;
+    }
+
+    public Path path(String relativePath) {
+        return projectRoot.resolve(relativePath);
+    }
+
+    public List<String> readLines(String relativePath) throws IOException {
+        return Files.readAllLines(path(relativePath), StandardCharsets.UTF_8);
+    }
+
+    // 第 round 轮修改：每个文件中约 editDensity 比例的行被替换，每隔几处修改插入或删除一行
+    public List<String> edit(List<String> lines, int round) {
+        Random random = new Random(SEED + round);
+        List<String> edited = new ArrayList<>(lines);
+        int edits = Math.max(1, (int) (lines.size() * editDensity));
+        for (int i = 0; i < edits && !edited.isEmpty(); i++) {
+            int position = random.nextInt(edited.size());
+            switch (i % 5) {
+                case 3:
+                    edited.add(position, "    // inserted in round " + round);
+                    break;
+                case 4:
+                    edited.remove(position);
+                    break;
+                default:
+                    edited.set(position, "    int edited" + i + " = compute(" + round + ", " + random.nextInt(100000) + ");");
+            }
+        }
+        return edited;
+    }
+
+    // 把第 round 轮的修改写到磁盘上，返回修改后的每个文件的内容
+    public List<List<String>> applyEdits(List<List<String>> baseContents, int round) throws IOException {
+        List<List<String>> edited = new ArrayList<>();
+        for (int i = 0; i < relativePaths.size(); i++) {
+            List<String> lines = edit(baseContents.get(i), round);
+            Files.write(path(relativePaths.get(i)), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+            edited.add(lines);
+        }
+        return edited;
+    }
+
+    // 删除整个临时项目
+    public void delete() throws IOException {
+        deleteDirectory(projectRoot);
+    }
+
+    public static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
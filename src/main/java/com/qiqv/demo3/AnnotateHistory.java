@@ -0,0 +1,124 @@
+package com.qiqv.demo3;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFontType;
+import com.intellij.openapi.editor.TextAnnotationGutterProvider;
+import com.intellij.openapi.editor.colors.ColorKey;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+//
+// 这个类在编辑器左侧标注每一行最后一次被修改的保存时刻（本地 blame），数据来自 LineProvenance。
+// 编辑器中还没有保存进历史的行标注为“未保存”
+//
+public class AnnotateHistory extends AnAction {
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getProject();
+        Editor editor = e.getData(CommonDataKeys.EDITOR);
+        VirtualFile file = e.getData(CommonDataKeys.VIRTUAL_FILE);
+        if (project == null || editor == null || file == null || project.getBasePath() == null
+                || !file.getPath().startsWith(project.getBasePath() + "/")) {
+            return;
+        }
+        Path snapshotRoot = Paths.get(project.getBasePath(), "snapshot");
+        if (!Files.isDirectory(snapshotRoot)) {
+            JOptionPane.showMessageDialog(null, "还没有保存任何版本");
+            return;
+        }
+        String relativePath = file.getPath().substring(project.getBasePath().length() + 1);
+        String text = editor.getDocument().getText();
+        Metrics.Action action = Metrics.beginAction("annotate", relativePath);
+        new SwingWorker<long[], Void>() {
+            @Override
+            protected long[] doInBackground() throws IOException {
+                List<String> currentLines = SnapshotStore.toLines(text.getBytes(StandardCharsets.UTF_8));
+                return SnapshotStore.forRoot(snapshotRoot).getLineProvenance().annotate(relativePath, currentLines);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    long[] provenance = get();
+                    if (provenance == null) {
+                        JOptionPane.showMessageDialog(null, "这个文件没有可以标注的历史");
+                        return;
+                    }
+                    editor.getGutter().closeAllAnnotations();
+                    editor.getGutter().registerTextAnnotation(new Annotation(provenance));
+                    Metrics.endAction(action);
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    // 编辑器左侧每行显示的内容
+    private static class Annotation implements TextAnnotationGutterProvider {
+        private final long[] provenance;
+        private final SimpleDateFormat shortFormat = new SimpleDateFormat("MM-dd HH:mm");
+        private final SimpleDateFormat fullFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        Annotation(long[] provenance) {
+            this.provenance = provenance;
+        }
+
+        @Override
+        public String getLineText(int line, Editor editor) {
+            if (line >= provenance.length) {
+                return null;
+            }
+            return provenance[line] == LineProvenance.NOT_CAPTURED ? "未保存" : shortFormat.format(new Date(provenance[line]));
+        }
+
+        @Override
+        public String getToolTip(int line, Editor editor) {
+            if (line >= provenance.length) {
+                return null;
+            }
+            return provenance[line] == LineProvenance.NOT_CAPTURED ? "这一行还没有保存进历史"
+                    : "最后一次修改于 " + fullFormat.format(new Date(provenance[line]));
+        }
+
+        @Override
+        public EditorFontType getStyle(int line, Editor editor) {
+            return EditorFontType.PLAIN;
+        }
+
+        @Override
+        public ColorKey getColor(int line, Editor editor) {
+            return null;
+        }
+
+        @Override
+        public Color getBgColor(int line, Editor editor) {
+            return null;
+        }
+
+        @Override
+        public List<AnAction> getPopupActions(int line, Editor editor) {
+            return null;
+        }
+
+        @Override
+        public void gutterClosed() {
+        }
+    }
+}
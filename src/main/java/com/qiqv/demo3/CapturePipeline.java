@@ -0,0 +1,270 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.UnifiedDiffUtils;
+import com.github.difflib.patch.Patch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+//
+// 这个类实现一轮保存的流水线：并行读取文件 -> 在有界线程池上并行对比 -> 最后一次性提交所有 diff，
+// 某个文件的对比可以和其他文件的读取同时进行
+//
+public class CapturePipeline {
+    // 线程数按 CPU 核数确定，留出一个核给 IDE
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("VersionTracker-capture-" + thread.getPoolIndex());
+                thread.setPriority(Thread.MIN_PRIORITY); // 低优先级，不和编辑器抢 CPU
+                return thread;
+            }, null, false);
+
+    // 保存和恢复共用的线程池
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    // 一个需要对比的文件
+    public static class Task {
+        public final String fileName;          // 文件名，用作 diff 文件名
+        public final String relativePath;      // 项目根目录下的相对路径
+        public final String originalFilePath;  // base 版本中的路径，写入 diff 头
+        public final String currentFilePath;   // 当前文件路径
+        public final String baseHash;          // base 版本中的内容哈希
+        public final String lastHash;          // 上一次保存时的内容哈希，内容相同则不再对比
+
+        public Task(String fileName, String relativePath, String originalFilePath, String currentFilePath,
+                    String baseHash, String lastHash) {
+            this.fileName = fileName;
+            this.relativePath = relativePath;
+            this.originalFilePath = originalFilePath;
+            this.currentFilePath = currentFilePath;
+            this.baseHash = baseHash;
+            this.lastHash = lastHash;
+        }
+    }
+
+    // 一轮流水线的结果
+    public static class Result {
+        public final List<String> diffFileNames = new ArrayList<>();      // 写入的 diff 文件名
+        public final Map<String, String> hashes = new LinkedHashMap<>();  // 相对路径 -> 当前内容哈希
+        public int skippedFiles;   // 读取后发现内容没变、没有对比的文件数
+        public long skippedBytes;  // 这些文件的字节数
+        public long bytesRead;     // 读取的当前内容和 base 版本内容的字节数
+        public long readNanos;     // 读取阶段各文件耗时之和
+        public long diffNanos;     // 对比阶段各文件耗时之和
+        public long writeNanos;    // 提交阶段写入 diff 和文件历史的耗时
+    }
+
+    // 读取阶段的结果，不需要和 base 版本对比时 originalLines 为 null，大文件已经按块保存、没有读入内存时 current 为 null
+    private static class Contents {
+        final Task task;
+        final String hash;
+        final byte[] current;
+        final long size;       // 当前内容的字节数
+        final List<String> originalLines;
+        final List<String> currentLines;
+        final boolean windowed; // 大文件模式：对比阶段按窗口流式对比，不整体读入内存
+        final long bytesRead;  // 读取的字节数，包括 base 版本的内容
+        final long readNanos;  // 读取耗时
+
+        Contents(Task task, String hash, byte[] current, long size, List<String> originalLines, List<String> currentLines,
+                 long bytesRead, long readNanos) {
+            this(task, hash, current, size, originalLines, currentLines, false, bytesRead, readNanos);
+        }
+
+        Contents(Task task, String hash, byte[] current, long size, List<String> originalLines, List<String> currentLines,
+                 boolean windowed, long bytesRead, long readNanos) {
+            this.task = task;
+            this.hash = hash;
+            this.current = current;
+            this.size = size;
+            this.originalLines = originalLines;
+            this.currentLines = currentLines;
+            this.windowed = windowed;
+            this.bytesRead = bytesRead;
+            this.readNanos = readNanos;
+        }
+
+        // 内容与上次保存时相同
+        boolean isUnchanged() {
+            return hash.equals(task.lastHash);
+        }
+    }
+
+    // 对比阶段的结果
+    private static class Output {
+        final String diffContent;               // 相对 base 版本的 diff，没有差异时为 null
+        final VersionHistory.Pending pending;   // 文件历史中的新记录，内容没变时为 null
+        final long diffNanos;                   // 对比耗时
+
+        Output(String diffContent, VersionHistory.Pending pending, long diffNanos) {
+            this.diffContent = diffContent;
+            this.pending = pending;
+            this.diffNanos = diffNanos;
+        }
+    }
+
+    private final SnapshotStore snapshotStore;
+    private final LargeFiles.Settings largeFileSettings;
+
+    public CapturePipeline(SnapshotStore snapshotStore, LargeFiles.Settings largeFileSettings) {
+        this.snapshotStore = snapshotStore;
+        this.largeFileSettings = largeFileSettings;
+    }
+
+    // 运行一轮流水线，有变化时把所有 diff 作为一个 diff_<时间戳> 一次写入，并在文件历史中记录 timestamp 时刻的内容
+    public Result run(List<Task> tasks, String diffFolderName, long timestamp) throws IOException {
+        VersionHistory history = snapshotStore.getHistory();
+        List<CompletableFuture<Contents>> reads = new ArrayList<>();
+        List<CompletableFuture<Output>> futures = new ArrayList<>();
+        for (Task task : tasks) {
+            CompletableFuture<Contents> read = CompletableFuture.supplyAsync(() -> read(task), pool);
+            reads.add(read);
+            futures.add(read.thenApplyAsync(contents -> diff(contents, history, timestamp), pool));
+        }
+        // 提交阶段按任务顺序收集结果，保证同名文件的命名是确定的
+        Result result = new Result();
+        Map<String, String> diffs = new LinkedHashMap<>();
+        List<VersionHistory.Pending> pendings = new ArrayList<>();
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                Output output = futures.get(i).join();
+                Contents contents = reads.get(i).join();
+                Task task = tasks.get(i);
+                result.hashes.put(task.relativePath, contents.hash);
+                result.bytesRead += contents.bytesRead;
+                result.readNanos += contents.readNanos;
+                result.diffNanos += output.diffNanos;
+                if (contents.isUnchanged()) {
+                    result.skippedFiles++;
+                    result.skippedBytes += contents.size;
+                }
+                if (output.pending != null) {
+                    pendings.add(output.pending);
+                }
+                String diffContent = output.diffContent;
+                if (diffContent == null) {
+                    continue;
+                }
+                // 不同目录下的同名文件用相对路径区分
+                String diffFileName = task.fileName + ".diff";
+                if (diffs.containsKey(diffFileName)) {
+                    diffFileName = task.relativePath.replace('/', '_') + ".diff";
+                }
+                diffs.put(diffFileName, diffContent);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        long writeStart = System.nanoTime();
+        if (!diffs.isEmpty()) {
+            snapshotStore.writeDiffs(diffFolderName, diffs);
+        }
+        history.commit(pendings);
+        result.writeNanos = System.nanoTime() - writeStart;
+        result.diffFileNames.addAll(diffs.keySet());
+        return result;
+    }
+
+    // 读取阶段：当前内容来自磁盘，与上次保存的内容或 base 版本相同时不再读取 base 版本。
+    // 大文件边读边按块保存，和按块保存的 base 版本一起留到对比阶段按窗口对比；二进制文件不按行对比，不生成 diff
+    private Contents read(Task task) {
+        try {
+            long start = System.nanoTime();
+            Path path = Paths.get(task.currentFilePath);
+            long size = Files.size(path);
+            if (size > SnapshotStore.CHUNK_THRESHOLD) {
+                String hash = snapshotStore.putFile(path);
+                boolean windowed = !hash.equals(task.lastHash) && !hash.equals(task.baseHash) && isWindowed(task, size);
+                return new Contents(task, hash, null, size, null, null, windowed, size, System.nanoTime() - start);
+            }
+            byte[] current = Files.readAllBytes(path);
+            String hash = SnapshotStore.hash(current);
+            if (hash.equals(task.lastHash) || hash.equals(task.baseHash) || SnapshotStore.isBinary(current)) {
+                return new Contents(task, hash, current, current.length, null, null, current.length, System.nanoTime() - start);
+            }
+            if (snapshotStore.isChunked(task.baseHash)) {
+                return new Contents(task, hash, current, current.length, null, null, isWindowed(task, current.length),
+                        current.length, System.nanoTime() - start);
+            }
+            byte[] original = snapshotStore.readBlob(task.baseHash);
+            if (SnapshotStore.isBinary(original)) {
+                return new Contents(task, hash, current, current.length, null, null,
+                        current.length + original.length, System.nanoTime() - start);
+            }
+            List<String> originalLines = SnapshotStore.toLines(original);
+            return new Contents(task, hash, current, current.length, originalLines, SnapshotStore.toLines(current),
+                    current.length + original.length, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 两边都不超过 lineDiffBytes 时按窗口逐行对比，否则只比较块列表
+    private boolean isWindowed(Task task, long size) throws IOException {
+        return size <= largeFileSettings.lineDiffBytes && snapshotStore.blobSize(task.baseHash) <= largeFileSettings.lineDiffBytes;
+    }
+
+    // 对比阶段：内容变化时准备文件历史记录，与 base 版本有差异时生成 unified diff 内容
+    private Output diff(Contents contents, VersionHistory history, long timestamp) {
+        long start = System.nanoTime();
+        VersionHistory.Pending pending;
+        try {
+            if (contents.isUnchanged()) {
+                pending = null;
+            } else if (contents.current == null) {
+                pending = history.prepareStored(contents.task.relativePath, timestamp, contents.hash); // 已经按块保存
+            } else {
+                pending = history.prepare(contents.task.relativePath, timestamp, contents.current);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (contents.windowed) {
+            // 大文件模式：base 版本按块读取，当前内容已经在内存中时直接使用，否则按区域内存映射读取
+            Task task = contents.task;
+            try (InputStream original = snapshotStore.openBlob(task.baseHash);
+                 InputStream current = contents.current != null ? new ByteArrayInputStream(contents.current)
+                         : Channels.newInputStream(LargeFiles.openMapped(Paths.get(task.currentFilePath)))) {
+                String diffContent = LargeFiles.diff(original, current, task.originalFilePath, task.currentFilePath, largeFileSettings);
+                return new Output(diffContent, pending, System.nanoTime() - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (contents.originalLines == null) {
+            return new Output(null, pending, System.nanoTime() - start);
+        }
+        Patch<String> patch = HistogramDiff.diff(contents.originalLines, contents.currentLines);
+        if (patch.getDeltas().isEmpty()) {
+            return new Output(null, pending, System.nanoTime() - start);
+        }
+        List<String> unifiedDiff = UnifiedDiffUtils.generateUnifiedDiff(
+                contents.task.originalFilePath,  // 原始文件名
+                contents.task.currentFilePath,   // 当前文件名
+                contents.originalLines,          // 原始文件内容
+                patch,                           // Patch 对象
+                1                                // 上下文行数
+        );
+        return new Output(String.join("\n", unifiedDiff), pending, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,271 @@
+package com.qiqv.demo3;
+
+import com.intellij.ide.PowerSaveMode;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.Alarm;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+//
+// 这个类决定什么时候保存一轮，代替原来固定 5 秒一次的定时保存：
+//   1. 连续编辑时不保存，停顿 quietMillis 之后再保存；一直在编辑时最多等待 maxDelayMillis；
+//   2. 没有任何变化时只做间隔逐步翻倍的检查，从 minIdleMillis 到 maxIdleMillis；
+//   3. IDE 正在建索引、处于省电模式或系统负载过高（例如正在构建）时暂停；
+//   4. 最近一分钟内保存的耗时和读写字节数超过预算时推迟到预算恢复。
+// 参数可以写在 snapshot/pack/scheduler.conf 中，每行 名字=数值（# 开头的行是注释），没有写的使用默认值
+//
+public class CaptureScheduler {
+    private static final long BUDGET_WINDOW = 60 * 1000L; // 预算按最近一分钟统计
+
+    // 调度参数，时间单位为毫秒
+    public static class Settings {
+        public long quietMillis = 1500;              // 最后一次编辑之后等待多久保存
+        public long maxDelayMillis = 15 * 1000L;     // 持续编辑时，第一次编辑之后最多等待多久
+        public long minIdleMillis = 5 * 1000L;       // 没有变化时第一次检查的间隔
+        public long maxIdleMillis = 5 * 60 * 1000L;  // 没有变化时检查间隔的上限
+        public long pausedRetryMillis = 10 * 1000L;  // 暂停期间多久检查一次能否恢复
+        public long cpuMillisPerMinute = 6 * 1000L;  // 每分钟保存耗时的预算（约占一个核的 10%）
+        public long ioBytesPerMinute = 256L * 1024 * 1024; // 每分钟读写字节数的预算
+        public double maxLoadPerCore = 1.5;          // 每个核的平均负载超过这个值时暂停，小于等于 0 表示不检查
+
+        // 读取 snapshot/pack/scheduler.conf，文件不存在或某一行格式不对时使用默认值
+        public static Settings load(Path snapshotRoot) {
+            Settings settings = new Settings();
+            Path config = snapshotRoot.resolve("pack").resolve("scheduler.conf");
+            if (!Files.exists(config)) {
+                return settings;
+            }
+            try {
+                for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    try {
+                        settings.set(line);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("无法识别的调度参数: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return settings;
+        }
+
+        private void set(String line) {
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException(line);
+            }
+            String name = line.substring(0, equals).trim();
+            String value = line.substring(equals + 1).trim();
+            switch (name) {
+                case "quietMillis":
+                    quietMillis = Long.parseLong(value);
+                    break;
+                case "maxDelayMillis":
+                    maxDelayMillis = Long.parseLong(value);
+                    break;
+                case "minIdleMillis":
+                    minIdleMillis = Long.parseLong(value);
+                    break;
+                case "maxIdleMillis":
+                    maxIdleMillis = Long.parseLong(value);
+                    break;
+                case "pausedRetryMillis":
+                    pausedRetryMillis = Long.parseLong(value);
+                    break;
+                case "cpuMillisPerMinute":
+                    cpuMillisPerMinute = Long.parseLong(value);
+                    break;
+                case "ioBytesPerMinute":
+                    ioBytesPerMinute = Long.parseLong(value);
+                    break;
+                case "maxLoadPerCore":
+                    maxLoadPerCore = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(name);
+            }
+        }
+    }
+
+    private final Project project;
+    private final VersionManager versionManager;
+    private final Settings settings;
+    private final Alarm alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD);
+    private final Deque<long[]> spent = new ArrayDeque<>(); // 最近一分钟每一轮的 {结束时间, 耗时毫秒, 读写字节数}
+    private final Runnable metricsListener = this::chargeLastCycle;
+    private Metrics.Cycle lastCharged;
+    private long firstActivity;  // 上一次保存之后第一次编辑的时间，0 表示没有等待保存的编辑
+    private long lastActivity;   // 最近一次编辑的时间
+    private long nextRun;        // 已经安排的下一次检查时间
+    private long idleDelay;      // 当前的空闲检查间隔
+    private String pauseReason;  // 暂停的原因，只在开始和结束暂停时打印
+    private boolean running;
+    private boolean capturing;   // 正在保存，期间的编辑只记录时间，保存结束后统一安排
+
+    public CaptureScheduler(Project project, VersionManager versionManager, Settings settings) {
+        this.project = project;
+        this.versionManager = versionManager;
+        this.settings = settings;
+        this.idleDelay = settings.minIdleMillis;
+    }
+
+    // 开始调度，立即检查一次（首次保存整个项目）
+    public synchronized void start() {
+        running = true;
+        Metrics.addListener(metricsListener);
+        scheduleAt(System.currentTimeMillis());
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Metrics.removeListener(metricsListener);
+        alarm.cancelAllRequests();
+    }
+
+    // 文档被编辑或文件发生变化时调用：重新开始计算停顿时间，空闲间隔恢复为最小值
+    public synchronized void activity() {
+        long now = System.currentTimeMillis();
+        if (firstActivity == 0) {
+            firstActivity = now;
+        }
+        lastActivity = now;
+        idleDelay = settings.minIdleMillis;
+        // 已经安排的检查足够早时不重新安排，连续输入时不会每次按键都重设定时器
+        long due = Math.min(now + settings.quietMillis, firstActivity + settings.maxDelayMillis);
+        if (!capturing && (nextRun > due || nextRun < now)) {
+            scheduleAt(due);
+        }
+    }
+
+    private void scheduleAt(long time) {
+        if (!running) {
+            return;
+        }
+        alarm.cancelAllRequests();
+        nextRun = time;
+        alarm.addRequest(this::tick, Math.max(0, time - System.currentTimeMillis()));
+    }
+
+    private void tick() {
+        synchronized (this) {
+            if (!running || capturing || project.isDisposed()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            String reason = pauseReason();
+            if (reason != null) {
+                if (!reason.equals(pauseReason)) {
+                    System.out.println("暂停保存: " + reason);
+                }
+                pauseReason = reason;
+                scheduleAt(now + settings.pausedRetryMillis);
+                return;
+            }
+            if (pauseReason != null) {
+                System.out.println("恢复保存");
+                pauseReason = null;
+            }
+            // 仍在连续编辑，等到停顿或达到最长等待时间
+            if (firstActivity != 0) {
+                long due = Math.min(lastActivity + settings.quietMillis, firstActivity + settings.maxDelayMillis);
+                if (due > now) {
+                    scheduleAt(due);
+                    return;
+                }
+            }
+            long budgetWait = budgetWait(now);
+            if (budgetWait > 0) {
+                scheduleAt(now + budgetWait);
+                return;
+            }
+            capturing = true;
+        }
+        try {
+            // 先把编辑器中的修改写入磁盘，写入产生的变更事件属于这一轮，之后的编辑才算新的活动
+            versionManager.saveDocuments();
+            synchronized (this) {
+                firstActivity = 0;
+                lastActivity = 0;
+            }
+            versionManager.saveEntireProject();
+        } finally {
+            synchronized (this) {
+                capturing = false;
+            }
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (firstActivity != 0) {
+                scheduleAt(Math.min(lastActivity + settings.quietMillis, firstActivity + settings.maxDelayMillis));
+            } else if (versionManager.hasPendingChanges()) {
+                scheduleAt(now + settings.minIdleMillis); // 这一轮没能处理完（例如正在整理历史），稍后重试
+            } else {
+                scheduleAt(now + idleDelay);
+                idleDelay = Math.min(idleDelay * 2, settings.maxIdleMillis);
+            }
+        }
+    }
+
+    // 不适合保存的原因，可以保存时返回 null
+    private String pauseReason() {
+        if (DumbService.getInstance(project).isDumb()) {
+            return "正在建立索引";
+        }
+        if (PowerSaveMode.isEnabled()) {
+            return "省电模式";
+        }
+        if (settings.maxLoadPerCore > 0) {
+            double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage(); // 不支持时为负数
+            int cores = Runtime.getRuntime().availableProcessors();
+            if (load > settings.maxLoadPerCore * cores) {
+                return String.format("系统负载过高 %.1f", load);
+            }
+        }
+        return null;
+    }
+
+    // 预算用完时需要等待的毫秒数：等最早的几轮移出统计窗口，直到耗时和读写量都回到预算以内
+    private synchronized long budgetWait(long now) {
+        while (!spent.isEmpty() && spent.peekFirst()[0] <= now - BUDGET_WINDOW) {
+            spent.pollFirst();
+        }
+        long cpu = 0;
+        long io = 0;
+        for (long[] cost : spent) {
+            cpu += cost[1];
+            io += cost[2];
+        }
+        long wait = 0;
+        for (long[] cost : spent) {
+            if (cpu < settings.cpuMillisPerMinute && io < settings.ioBytesPerMinute) {
+                break;
+            }
+            cpu -= cost[1];
+            io -= cost[2];
+            wait = cost[0] + BUDGET_WINDOW - now; // 这一轮移出窗口的时间
+        }
+        return wait;
+    }
+
+    // 每一轮结束时由 Metrics 通知，把这一轮的耗时和读写字节数记入预算（保存整个项目的一轮同样计入，它在 CapturePipeline 的线程池中完成，调度线程等待它结束）
+    private synchronized void chargeLastCycle() {
+        Metrics.Cycle cycle = Metrics.getLastCycle();
+        if (cycle == null || cycle == lastCharged) {
+            return;
+        }
+        lastCharged = cycle;
+        spent.addLast(new long[]{System.currentTimeMillis(), cycle.getTotalNanos() / 1_000_000,
+                cycle.bytesRead + cycle.bytesWritten});
+    }
+}
@@ -0,0 +1,87 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+//
+// 这个类按内容切分大文件和二进制文件（FastCDC）：用 Gear 滚动哈希在内容中找切分点，切分点只取决于附近的内容，
+// 文件中间插入或删除几个字节只会改变附近一两个块，其余的块与上一次完全相同，不需要重新保存。
+// 块的大小在 MIN_CHUNK 到 MAX_CHUNK 之间，平均约 AVG_CHUNK
+//
+public class Chunker {
+    public static final int MIN_CHUNK = 16 * 1024;
+    public static final int AVG_CHUNK = 64 * 1024;
+    public static final int MAX_CHUNK = 256 * 1024;
+    // 切分条件：哈希的高若干位全为 0。平均大小之前用更严格的条件，之后用更宽松的条件，使块大小集中在平均值附近
+    private static final long MASK_STRICT = -1L << (64 - 18);
+    private static final long MASK_LOOSE = -1L << (64 - 14);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x5EED_C0DEL); // 固定种子，切分结果在不同机器、不同版本之间保持一致
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // 从 data[start] 开始的下一个块的长度，end 之后没有更多内容
+    public static int nextChunk(byte[] data, int start, int end) {
+        int length = end - start;
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int normal = Math.min(length, AVG_CHUNK);
+        int max = Math.min(length, MAX_CHUNK);
+        long fingerprint = 0;
+        int i = MIN_CHUNK; // 最小块之内不可能切分，直接跳过
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[start + i] & 0xFF];
+            if ((fingerprint & MASK_STRICT) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[start + i] & 0xFF];
+            if ((fingerprint & MASK_LOOSE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+
+    // 逐块读取通道中的内容，内存中最多保留两个最大块
+    public static class Reader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(2 * MAX_CHUNK);
+        private boolean endOfInput;
+
+        public Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.flip(); // 初始为空
+        }
+
+        // 读取下一个块，没有更多内容时返回 null
+        public byte[] next() throws IOException {
+            // 切分点需要看到最多 MAX_CHUNK 字节，缓冲区不足时先补满，保证同样的内容总在同样的位置切分
+            if (buffer.remaining() < MAX_CHUNK && !endOfInput) {
+                buffer.compact();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        endOfInput = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+            }
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            int length = nextChunk(buffer.array(), buffer.position(), buffer.limit());
+            byte[] chunk = new byte[length];
+            buffer.get(chunk);
+            return chunk;
+        }
+    }
+}
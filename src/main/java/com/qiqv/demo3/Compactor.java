@@ -0,0 +1,249 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//
+// 这个类在后台按保留策略（见 RetentionPolicy）整理 snapshot 中的历史：
+//   1. 不保留的 diff_ 文件夹合并到同一 base 版本下、之后第一个保留的 diff_ 文件夹中再删除；
+//   2. 不保留、也不再是任何 diff_ 文件夹 base 的版本清单删除；
+//   3. 文件历史中不保留的时刻删除并重新编码记录链；
+//   4. 不再被引用的 objects/、chunks/、delta/ 条目删除，无效数据过多时重写压缩包。
+// 整理在一个低优先级的后台线程中进行，同一个 snapshot 至少间隔 COMPACT_INTERVAL 才整理一次，
+// 整理期间持有 SnapshotStore 的维护锁，保存会跳过这一轮
+//
+public class Compactor {
+    private static final long COMPACT_INTERVAL = 10 * 60 * 1000L; // 两次整理的最小间隔（毫秒）
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VersionTracker-compactor");
+        thread.setPriority(Thread.MIN_PRIORITY); // 低优先级，不和编辑器抢 CPU
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<SnapshotStore, Long> lastRuns = new ConcurrentHashMap<>(); // 每个 snapshot 上一次整理的时间
+
+    // 每轮保存之后调用，距上一次整理超过 COMPACT_INTERVAL 时在后台开始整理
+    public static void scheduleIfDue(SnapshotStore store) {
+        long now = System.currentTimeMillis();
+        Long lastRun = lastRuns.get(store);
+        if (lastRun != null && now - lastRun < COMPACT_INTERVAL) {
+            return;
+        }
+        lastRuns.put(store, now);
+        executor.execute(() -> {
+            if (!store.tryBeginMaintenance()) {
+                lastRuns.remove(store); // 正在保存，下一轮保存之后再试
+                return;
+            }
+            try {
+                compact(store, RetentionPolicy.load(store.getSnapshotRoot()), System.currentTimeMillis());
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                System.out.println("整理历史失败");
+            } finally {
+                store.endMaintenance();
+            }
+        });
+    }
+
+    // 按保留策略整理一次，调用方需要持有维护锁
+    public static void compact(SnapshotStore store, RetentionPolicy policy, long now) throws IOException {
+        List<String> versions = store.listVersions();
+        VersionHistory history = store.getHistory();
+        Set<String> removedKeys = new HashSet<>();
+        List<Long> anchors = new ArrayList<>(); // 保留的版本和 diff_ 文件夹的时刻，文件历史要能还原这些时刻
+
+        // 1. diff_ 文件夹：按时间顺序处理，不保留的文件夹中的 diff 带到下一个保留的文件夹
+        TreeMap<String, List<String>> diffFolders = new TreeMap<>(); // diff_<时间戳> -> 文件夹中的 key
+        for (String key : store.listKeys("diff/")) {
+            String[] parts = key.split("/", 3);
+            if (parts.length == 3 && SnapshotStore.parseTimeStamp(parts[1].substring(parts[1].indexOf('_') + 1)) >= 0) {
+                diffFolders.computeIfAbsent(parts[1], name -> new ArrayList<>()).add(key);
+            }
+        }
+        List<Long> diffTimes = new ArrayList<>();
+        for (String folder : diffFolders.keySet()) {
+            diffTimes.add(folderTime(folder));
+        }
+        Set<Long> keptDiffTimes = policy.select(diffTimes, now);
+        Set<String> usedVersions = new HashSet<>(); // 保留的 diff_ 文件夹的 base 版本
+        Map<String, String> carried = new LinkedHashMap<>(); // 目标文件 -> 被删除文件夹中最后一个 diff 的 key
+        String carriedBase = null;
+        int mergedDiffs = 0;
+        for (Map.Entry<String, List<String>> folder : diffFolders.entrySet()) {
+            String base = baseVersion(versions, folder.getKey());
+            if (carriedBase != null && !carriedBase.equals(base)) {
+                carried.clear(); // base 版本变了，之前的 diff 不能带过来
+            }
+            carriedBase = base;
+            if (!keptDiffTimes.contains(folderTime(folder.getKey()))) {
+                for (String key : folder.getValue()) {
+                    carried.put(targetOf(store, key), key);
+                }
+                removedKeys.addAll(folder.getValue());
+                continue;
+            }
+            if (base != null) {
+                usedVersions.add(base);
+            }
+            anchors.add(captureTime(folder.getKey()));
+            if (!carried.isEmpty()) {
+                mergedDiffs += mergeInto(store, history, base, folder.getKey(), folder.getValue(), carried);
+                carried.clear();
+            }
+        }
+
+        // 2. 版本清单：保留策略选中的、被保留的 diff_ 文件夹用作 base 的，以及最新的版本
+        List<Long> versionTimes = new ArrayList<>();
+        for (String version : versions) {
+            versionTimes.add(folderTime(version));
+        }
+        Set<Long> keptVersionTimes = policy.select(versionTimes, now);
+        Set<String> keptVersions = new HashSet<>(usedVersions);
+        for (String version : versions) {
+            if (keptVersionTimes.contains(folderTime(version))) {
+                keptVersions.add(version);
+            }
+        }
+        if (!versions.isEmpty()) {
+            keptVersions.add(versions.get(versions.size() - 1));
+        }
+        for (String version : versions) {
+            if (!keptVersions.contains(version)) {
+                removedKeys.add("version/" + version);
+            }
+        }
+
+        // 3. 文件历史
+        for (String version : keptVersions) {
+            anchors.add(captureTime(version));
+        }
+        Set<String> liveKeys = history.compact(policy, now, anchors);
+
+        // 4. 保留的版本清单引用的内容
+        for (String version : keptVersions) {
+            VersionIndex index = store.readManifest(version);
+            if (index != null) {
+                for (String relativePath : index.paths()) {
+                    liveKeys.add("objects/" + index.get(relativePath).hash);
+                }
+            }
+        }
+        // 按块保存的内容还引用块列表和其中的每个块
+        for (String key : new ArrayList<>(liveKeys)) {
+            if (key.startsWith("objects/")) {
+                liveKeys.addAll(store.blobKeys(key.substring("objects/".length())));
+            }
+        }
+        for (String prefix : new String[]{"objects/", "chunks/", "delta/"}) {
+            for (String key : store.listKeys(prefix)) {
+                if (!liveKeys.contains(key)) {
+                    removedKeys.add(key);
+                }
+            }
+        }
+        store.removeEntries(removedKeys);
+        long reclaimed = store.rewritePackIfWasteful();
+        System.out.println("整理历史: 删除 " + removedKeys.size() + " 个条目, 合并 " + mergedDiffs + " 个 diff, 回收 "
+                + reclaimed + " 字节");
+    }
+
+    // 把被删除文件夹中的 diff 写入保留的文件夹，保留的文件夹中已有同一文件的 diff 时以它为准；
+    // 文件在保留的文件夹的时刻已经改回 base 版本的内容（或已删除）时，那一轮没有它的 diff，也不再带过去。返回写入的个数
+    private static int mergeInto(SnapshotStore store, VersionHistory history, String base, String folder, List<String> keys,
+                                 Map<String, String> carried) throws IOException {
+        Set<String> targets = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (String key : keys) {
+            targets.add(targetOf(store, key));
+            names.add(key.substring(key.lastIndexOf('/') + 1));
+        }
+        Map<String, String> diffs = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : carried.entrySet()) {
+            if (entry.getKey().isEmpty() || targets.contains(entry.getKey())
+                    || !differsFromBase(store, history, base, entry.getKey(), captureTime(folder))) {
+                continue;
+            }
+            String name = entry.getValue().substring(entry.getValue().lastIndexOf('/') + 1);
+            if (names.contains(name)) {
+                // 不同目录下的同名文件用相对路径区分，与 CapturePipeline 的命名一致
+                String projectRoot = store.getSnapshotRoot().getParent() + "/";
+                String target = entry.getKey();
+                name = (target.startsWith(projectRoot) ? target.substring(projectRoot.length()) : target).replace('/', '_') + ".diff";
+            }
+            names.add(name);
+            diffs.put(name, new String(store.readEntry(entry.getValue()), StandardCharsets.UTF_8));
+        }
+        if (!diffs.isEmpty()) {
+            store.writeDiffs(folder, diffs);
+        }
+        return diffs.size();
+    }
+
+    // 文件在 timestamp 时刻的内容是否与 base 版本不同；没有文件历史（旧版本生成的 diff）时无法判断，按不同处理
+    private static boolean differsFromBase(SnapshotStore store, VersionHistory history, String base, String target,
+                                           long timestamp) throws IOException {
+        String projectRoot = store.getSnapshotRoot().getParent() + "/";
+        if (!target.startsWith(projectRoot)) {
+            return true;
+        }
+        String relativePath = target.substring(projectRoot.length());
+        if (history.timestamps(relativePath).isEmpty()) {
+            return true;
+        }
+        String hash = history.hashAt(relativePath, timestamp);
+        if (hash == null) {
+            return false;
+        }
+        VersionIndex index = base == null ? null : store.readManifest(base);
+        VersionIndex.Entry entry = index == null ? null : index.get(relativePath);
+        return entry == null || !hash.equals(entry.hash);
+    }
+
+    // diff 文件头中 +++ 后面的目标文件路径，读取失败时为空串
+    private static String targetOf(SnapshotStore store, String key) throws IOException {
+        byte[] content = store.readEntry(key);
+        if (content == null) {
+            return "";
+        }
+        for (String line : new String(content, StandardCharsets.UTF_8).split("\n", 4)) {
+            if (line.startsWith("+++")) {
+                return line.substring(4).trim();
+            }
+        }
+        return "";
+    }
+
+    // diff_ 文件夹所属的 base 版本：不晚于它的最新版本
+    private static String baseVersion(List<String> versions, String folder) {
+        String base = null;
+        String versionName = "Version_" + folder.substring(folder.indexOf('_') + 1);
+        for (String version : versions) {
+            if (version.compareTo(versionName) <= 0) {
+                base = version;
+            }
+        }
+        return base;
+    }
+
+    // 恢复版本、diff_ 文件夹时还原文件的时刻：名字只精确到秒，同一秒内的记录都属于它（与 Recover 一致）
+    private static long captureTime(String name) {
+        return folderTime(name) + 999;
+    }
+
+    // 版本名、diff_ 文件夹名中的时刻
+    private static long folderTime(String name) {
+        return SnapshotStore.parseTimeStamp(name.substring(name.indexOf('_') + 1));
+    }
+}
@@ -0,0 +1,58 @@
+package com.qiqv.demo3;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//
+// 这个类缓存每个文件上一次保存时的指纹（大小、修改时间、Document 修改戳、内容哈希），
+// 初始值来自 base 版本的索引。指纹没变的文件不需要读取，更不需要对比
+//
+public class FingerprintCache {
+    public static final long NO_DOCUMENT = -1; // 文件没有在编辑器中打开
+
+    public static class Fingerprint {
+        public final long length;         // 文件大小
+        public final long timeStamp;      // 文件修改时间
+        public final long documentStamp;  // Document 修改戳，没有 Document 时为 NO_DOCUMENT
+        public final String hash;         // 内容哈希
+
+        public Fingerprint(long length, long timeStamp, long documentStamp, String hash) {
+            this.length = length;
+            this.timeStamp = timeStamp;
+            this.documentStamp = documentStamp;
+            this.hash = hash;
+        }
+    }
+
+    private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>(); // 相对路径 -> 指纹
+
+    // 用 base 版本的索引初始化
+    public void seed(VersionIndex index) {
+        fingerprints.clear();
+        for (String relativePath : index.paths()) {
+            VersionIndex.Entry entry = index.get(relativePath);
+            fingerprints.put(relativePath, new Fingerprint(entry.size, entry.mtime, NO_DOCUMENT, entry.hash));
+        }
+    }
+
+    // 大小、修改时间和 Document 修改戳都没变时认为内容没变
+    public boolean isUnchanged(String relativePath, long length, long timeStamp, long documentStamp) {
+        Fingerprint fingerprint = fingerprints.get(relativePath);
+        return fingerprint != null && fingerprint.length == length && fingerprint.timeStamp == timeStamp
+                && fingerprint.documentStamp == documentStamp;
+    }
+
+    // 上一次保存时的内容哈希
+    public String getHash(String relativePath) {
+        Fingerprint fingerprint = fingerprints.get(relativePath);
+        return fingerprint == null ? null : fingerprint.hash;
+    }
+
+    public void update(String relativePath, Fingerprint fingerprint) {
+        fingerprints.put(relativePath, fingerprint);
+    }
+
+    public void clear() {
+        fingerprints.clear();
+    }
+}
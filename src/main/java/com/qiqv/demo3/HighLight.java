@@ -1,64 +1,92 @@
-package com.qiqv.demo3;
-
-import javax.swing.*;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DefaultHighlighter;
-import javax.swing.text.Highlighter;
-import java.awt.*;
-import java.util.List;
-
-public class HighLight {
-    public static void highlightDifferences(List<String> file1Lines, List<String> file2Lines, List<String> diffLines, JTextArea textArea1, JTextArea textArea2) throws BadLocationException {
-        Highlighter highlighter1 = textArea1.getHighlighter();
-        Highlighter highlighter2 = textArea2.getHighlighter();
-
-        int pos1 = 0;  // 记录第一个文件在 JTextArea 中的偏移位置
-        int pos2 = 0;  // 记录第二个文件在 JTextArea 中的偏移位置
-        int lineIndex1=0;
-        int lineIndex2=0;
-        for (String diffLine : diffLines) {
-            // 解析 diff 文件中的差异信息
-            if (diffLine.startsWith("@@")) {
-                String[] parts = diffLine.split(" ");
-                String originalInfo1 = parts[1]; // 获取原始文件的行信息
-                String[] originalRange1 = originalInfo1.substring(1).split(",");
-                lineIndex1 = Integer.parseInt(originalRange1[0]); // 获取修改的起始行号（数组从0开始）
-                String originalInfo2 = parts[2]; // 获取原始文件的行信息
-                String[] originalRange2 = originalInfo2.substring(1).split(",");
-                lineIndex2 = Integer.parseInt(originalRange2[0]); // 获取修改的起始行号（数组从0开始）
-                // diff 行，解析出修改范围
-                continue;
-            }
-            else if (diffLine.startsWith("-")) {
-                // 删除的行，左边高亮红色
-                int startPos = calculateStartPos(file1Lines,lineIndex1);
-                int endPos = startPos + diffLine.length();
-                highlighter1.addHighlight(startPos, endPos, new DefaultHighlighter.DefaultHighlightPainter(Color.RED));
-                pos1 += 1;
-                lineIndex1++;
-                continue;
-            } else if (diffLine.startsWith("+")) {
-
-                // 新增的行，右边高亮绿色
-                int startPos2 = calculateStartPos(file2Lines,lineIndex2);
-                int endPos2 = startPos2 + diffLine.length();
-                System.out.println("Highlighting from " + startPos2 + " to " + endPos2 + " for content: " + diffLine.length());
-                highlighter2.addHighlight(startPos2, endPos2, new DefaultHighlighter.DefaultHighlightPainter(Color.GREEN));
-                pos2 +=1;
-                lineIndex2++;
-                continue;
-            }
-        }
-
-    }
-    public static int calculateStartPos(List<String> lines, int lineIndex) {
-        int startPos = 0;
-
-        // 遍历 lineIndex 之前的所有行，累加每一行的长度和换行符
-        for (int i = 0; i < lineIndex; i++) {
-            startPos += lines.get(i).length();  // 加上该行的字符数
-            startPos += 1;  // 换行符的长度，一般为 1（\n）
-        }
-        return startPos;  // 返回第 lineIndex 行的起始位置
-    }
-}
+package com.qiqv.demo3;
+
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Chunk;
+import com.github.difflib.patch.Patch;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import java.awt.*;
+import java.util.List;
+
+public class HighLight {
+    // 所有高亮共用的画笔
+    private static final Highlighter.HighlightPainter DELETED_PAINTER = new DefaultHighlighter.DefaultHighlightPainter(Color.RED);
+    private static final Highlighter.HighlightPainter ADDED_PAINTER = new DefaultHighlighter.DefaultHighlightPainter(Color.GREEN);
+
+    // 直接按 Patch 中的差异高亮：源文件中被删除或修改的行左边标红，目标文件中新增或修改的行右边标绿
+    public static void highlightPatch(List<String> file1Lines, List<String> file2Lines, Patch<String> patch, JTextArea textArea1, JTextArea textArea2) throws BadLocationException {
+        Highlighter highlighter1 = textArea1.getHighlighter();
+        Highlighter highlighter2 = textArea2.getHighlighter();
+        // 清除上一次选择留下的高亮
+        highlighter1.removeAllHighlights();
+        highlighter2.removeAllHighlights();
+
+        // 每一行的起始位置只计算一次
+        int[] lineStarts1 = calculateLineStarts(file1Lines);
+        int[] lineStarts2 = calculateLineStarts(file2Lines);
+        Range deleted = new Range(highlighter1, DELETED_PAINTER, textArea1.getDocument().getLength());
+        Range added = new Range(highlighter2, ADDED_PAINTER, textArea2.getDocument().getLength());
+        for (AbstractDelta<String> delta : patch.getDeltas()) {
+            Chunk<String> source = delta.getSource();
+            Chunk<String> target = delta.getTarget();
+            if (source.size() > 0) {
+                deleted.extend(lineStart(lineStarts1, source.getPosition()), lineStart(lineStarts1, source.getPosition() + source.size()));
+            }
+            if (target.size() > 0) {
+                added.extend(lineStart(lineStarts2, target.getPosition()), lineStart(lineStarts2, target.getPosition() + target.size()));
+            }
+        }
+        deleted.flush();
+        added.flush();
+    }
+
+    // 计算每一行的起始位置，lineStarts[i] 是第 i 行之前所有行的长度加换行符之和
+    public static int[] calculateLineStarts(List<String> lines) {
+        int[] lineStarts = new int[lines.size() + 1];
+        for (int i = 0; i < lines.size(); i++) {
+            lineStarts[i + 1] = lineStarts[i] + lines.get(i).length() + 1; // 换行符的长度，一般为 1（\n）
+        }
+        return lineStarts;
+    }
+
+    // 返回第 lineIndex 行的起始位置，超出文件末尾时返回文件末尾
+    private static int lineStart(int[] lineStarts, int lineIndex) {
+        return lineStarts[Math.min(lineIndex, lineStarts.length - 1)];
+    }
+
+    // 正在合并的高亮范围，相邻或重叠的行合并为一个高亮
+    private static class Range {
+        final Highlighter highlighter;
+        final Highlighter.HighlightPainter painter;
+        final int documentLength;
+        int start = -1;
+        int end = -1;
+
+        Range(Highlighter highlighter, Highlighter.HighlightPainter painter, int documentLength) {
+            this.highlighter = highlighter;
+            this.painter = painter;
+            this.documentLength = documentLength;
+        }
+
+        void extend(int startPos, int endPos) throws BadLocationException {
+            if (start >= 0 && startPos <= end) {
+                end = Math.max(end, endPos);
+                return;
+            }
+            flush();
+            start = startPos;
+            end = endPos;
+        }
+
+        void flush() throws BadLocationException {
+            if (start < 0) {
+                return;
+            }
+            highlighter.addHighlight(Math.min(start, documentLength), Math.min(end, documentLength), painter);
+            start = -1;
+        }
+    }
+}
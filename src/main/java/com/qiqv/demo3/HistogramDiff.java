@@ -0,0 +1,201 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.algorithm.Change;
+import com.github.difflib.algorithm.DiffAlgorithmI;
+import com.github.difflib.algorithm.DiffAlgorithmListener;
+import com.github.difflib.algorithm.myers.MeyersDiff;
+import com.github.difflib.patch.DeltaType;
+import com.github.difflib.patch.Patch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// 这个类是按行对比的 histogram 算法，作为 java-diff-utils 的 DiffAlgorithmI 使用，结果仍然是同样的 Patch。
+// 先把每一行换成整数编号（相同内容的行编号相同），之后只比较 int 数组，不再逐行调用 String.equals。
+// 对每个区间：先去掉相同的开头和结尾，再在旧内容中找出现次数最少、同时出现在新内容中的行作为锚点，
+// 把锚点两边相同的行连成一段，分成左右两个区间继续处理。生成代码、日志这类大量重复行的文件也不会退化；
+// 只有一个区间里所有共同的行都重复太多次时才退回 Myers 算法，区间太大时整段记为修改
+//
+public class HistogramDiff implements DiffAlgorithmI<String> {
+    private static final int MAX_CHAIN_LENGTH = 64;   // 出现次数超过这个值的行不作为锚点
+    private static final int MYERS_FALLBACK_LIMIT = 8192; // 没有锚点时，两边行数之和不超过这个值才用 Myers 对比
+
+    private static final HistogramDiff INSTANCE = new HistogramDiff();
+
+    // 对比两个版本的行，替代 DiffUtils.diff(source, target)
+    public static Patch<String> diff(List<String> source, List<String> target) {
+        return DiffUtils.diff(source, target, INSTANCE);
+    }
+
+    @Override
+    public List<Change> computeDiff(List<String> source, List<String> target, DiffAlgorithmListener progress) {
+        if (progress != null) {
+            progress.diffStart();
+        }
+        // 相同内容的行编号相同
+        Map<String, Integer> ids = new HashMap<>((source.size() + target.size()) * 4 / 3 + 16);
+        int[] a = intern(source, ids);
+        int[] b = intern(target, ids);
+        List<Change> changes = new Region(a, b, ids.size()).run();
+        if (progress != null) {
+            progress.diffEnd();
+        }
+        return changes;
+    }
+
+    private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    // 一次对比的状态：每个区间的统计都复用同一组数组，用区间序号区分数组中的值是不是这个区间的
+    private static class Region {
+        private final int[] a;
+        private final int[] b;
+        private final int[] count;  // 行编号 -> 在旧内容的当前区间中出现的次数
+        private final int[] head;   // 行编号 -> 在当前区间中最后一次出现的位置
+        private final int[] stamp;  // 行编号 -> count、head 属于哪个区间
+        private final int[] next;   // 旧内容的位置 -> 同一行在区间中的前一次出现，没有时为 -1
+        private final List<Change> changes = new ArrayList<>();
+        private int serial;
+
+        Region(int[] a, int[] b, int idCount) {
+            this.a = a;
+            this.b = b;
+            this.count = new int[idCount];
+            this.head = new int[idCount];
+            this.stamp = new int[idCount];
+            this.next = new int[a.length];
+        }
+
+        // 用栈代替递归：先处理左边的区间，得到的修改按位置排列
+        List<Change> run() {
+            Deque<int[]> pending = new ArrayDeque<>();
+            pending.push(new int[]{0, a.length, 0, b.length});
+            while (!pending.isEmpty()) {
+                int[] region = pending.pop();
+                split(region[0], region[1], region[2], region[3], pending);
+            }
+            return changes;
+        }
+
+        private void split(int aStart, int aEnd, int bStart, int bEnd, Deque<int[]> pending) {
+            // 相同的开头和结尾不需要对比
+            while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                aStart++;
+                bStart++;
+            }
+            while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+                aEnd--;
+                bEnd--;
+            }
+            if (aStart == aEnd || bStart == bEnd) {
+                addChange(aStart, aEnd, bStart, bEnd);
+                return;
+            }
+
+            // 统计旧内容中每一行的出现次数，并把同一行的位置串成链
+            serial++;
+            for (int i = aStart; i < aEnd; i++) {
+                int id = a[i];
+                if (stamp[id] != serial) {
+                    stamp[id] = serial;
+                    count[id] = 0;
+                    head[id] = -1;
+                }
+                count[id]++;
+                next[i] = head[id];
+                head[id] = i;
+            }
+
+            // 找出现次数最少的锚点，并向两边扩展成最长的相同段
+            int bestA = -1;
+            int bestB = -1;
+            int bestLength = 0;
+            int bestCount = MAX_CHAIN_LENGTH + 1;
+            int bi = bStart;
+            while (bi < bEnd) {
+                int id = b[bi];
+                int nextB = bi + 1;
+                if (stamp[id] == serial && count[id] <= MAX_CHAIN_LENGTH && count[id] <= bestCount) {
+                    for (int ai = head[id]; ai != -1; ai = next[ai]) {
+                        int lowest = count[id];
+                        int as = ai;
+                        int bs = bi;
+                        while (as > aStart && bs > bStart && a[as - 1] == b[bs - 1]) {
+                            as--;
+                            bs--;
+                            lowest = Math.min(lowest, count[a[as]]);
+                        }
+                        int ae = ai + 1;
+                        int be = bi + 1;
+                        while (ae < aEnd && be < bEnd && a[ae] == b[be]) {
+                            lowest = Math.min(lowest, count[a[ae]]);
+                            ae++;
+                            be++;
+                        }
+                        nextB = Math.max(nextB, be);
+                        if (ae - as > bestLength || lowest < bestCount) {
+                            bestA = as;
+                            bestB = bs;
+                            bestLength = ae - as;
+                            bestCount = lowest;
+                        }
+                    }
+                }
+                bi = nextB;
+            }
+
+            if (bestLength == 0) {
+                fallback(aStart, aEnd, bStart, bEnd);
+                return;
+            }
+            // 锚点段本身相同，先压右边再压左边，出栈时左边先处理
+            pending.push(new int[]{bestA + bestLength, aEnd, bestB + bestLength, bEnd});
+            pending.push(new int[]{aStart, bestA, bStart, bestB});
+        }
+
+        // 没有合适的锚点：区间不大时用 Myers 对比，否则整段记为修改
+        private void fallback(int aStart, int aEnd, int bStart, int bEnd) {
+            if ((aEnd - aStart) + (bEnd - bStart) > MYERS_FALLBACK_LIMIT) {
+                addChange(aStart, aEnd, bStart, bEnd);
+                return;
+            }
+            List<Integer> source = new ArrayList<>(aEnd - aStart);
+            for (int i = aStart; i < aEnd; i++) {
+                source.add(a[i]);
+            }
+            List<Integer> target = new ArrayList<>(bEnd - bStart);
+            for (int i = bStart; i < bEnd; i++) {
+                target.add(b[i]);
+            }
+            for (Change change : new MeyersDiff<Integer>().computeDiff(source, target, null)) {
+                changes.add(new Change(change.deltaType, change.startOriginal + aStart, change.endOriginal + aStart,
+                        change.startRevised + bStart, change.endRevised + bStart));
+            }
+        }
+
+        private void addChange(int aStart, int aEnd, int bStart, int bEnd) {
+            if (aStart == aEnd && bStart == bEnd) {
+                return;
+            }
+            DeltaType type = aStart == aEnd ? DeltaType.INSERT : bStart == bEnd ? DeltaType.DELETE : DeltaType.CHANGE;
+            changes.add(new Change(type, aStart, aEnd, bStart, bEnd));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+//
+// 这个类判断项目中的路径是否需要版本管理，规则来自：
+//   1. 插件自己和系统的目录（BUILT_IN_RULES）；
+//   2. IDE 中标记为 Excluded 的目录；
+//   3. 项目根目录下的 .versionignore（插件专用，语法与 .gitignore 相同）和 .git/info/exclude；
+//   4. 各级目录中的 .gitignore，只作用于所在目录之下，第一次用到时读取。
+// 每条规则编译成名字比较或正则表达式。遍历目录时在目录一级判断，被忽略的目录整个跳过，不会进入其中
+//
+public class IgnoreRules {
+    public static final String IGNORE_FILE_NAME = ".versionignore";
+    // 插件和系统目录，以及常见的构建输出和依赖目录；构建输出可以在 .versionignore 中用 !/build/ 等规则重新包含
+    private static final List<String> BUILT_IN_RULES = Arrays.asList(
+            "/snapshot/", "/compare/", "/.idea/", "/.gitignore", ".git/",
+            ".gradle/", "node_modules/", "/build/", "/out/");
+
+    // 编译后的一条规则
+    private static class Rule {
+        final boolean negated;        // ! 开头，重新包含之前被忽略的路径
+        final boolean directoryOnly;  // / 结尾，只匹配目录
+        final boolean anchored;       // 含 / 的规则匹配相对规则文件所在目录的路径，其余匹配文件名
+        final String name;            // 不含通配符、不含 / 的规则直接比较文件名，否则为 null
+        final Pattern pattern;
+
+        Rule(boolean negated, boolean directoryOnly, boolean anchored, String name, Pattern pattern) {
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+            this.name = name;
+            this.pattern = pattern;
+        }
+
+        boolean matches(String relativePath, String fileName, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            if (name != null) {
+                return name.equals(fileName);
+            }
+            return pattern.matcher(anchored ? relativePath : fileName).matches();
+        }
+    }
+
+    private final Path projectRoot;
+    private final Set<String> excludedRoots; // IDE 中标记为 Excluded 的目录（相对路径）
+    private final Map<String, List<Rule>> directoryRules = new ConcurrentHashMap<>(); // 目录相对路径（根目录为空串）-> 规则
+
+    public IgnoreRules(Path projectRoot, Collection<String> excludedRoots) {
+        this.projectRoot = projectRoot;
+        this.excludedRoots = new HashSet<>(excludedRoots);
+    }
+
+    // 完整判断一个路径：它或它所在的任何一级目录被忽略时返回 true
+    public boolean isIgnored(String relativePath, boolean directory) {
+        int slash = -1;
+        while ((slash = relativePath.indexOf('/', slash + 1)) >= 0) {
+            if (isIgnoredEntry(relativePath.substring(0, slash), true)) {
+                return true;
+            }
+        }
+        return isIgnoredEntry(relativePath, directory);
+    }
+
+    // 判断目录中的一项，调用方保证它所在的各级目录都没有被忽略（遍历时逐级判断）
+    public boolean isIgnoredEntry(String relativePath, boolean directory) {
+        if (excludedRoots.contains(relativePath)) {
+            return true;
+        }
+        String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        // 从最深一级目录的规则开始，每个规则文件中后面的规则优先，第一条匹配的规则决定结果
+        int end = relativePath.length();
+        while (true) {
+            int slash = relativePath.lastIndexOf('/', end - 1);
+            String directoryPath = slash < 0 ? "" : relativePath.substring(0, slash);
+            List<Rule> rules = rulesIn(directoryPath);
+            String pathInDirectory = slash < 0 ? relativePath : relativePath.substring(slash + 1);
+            for (int i = rules.size() - 1; i >= 0; i--) {
+                Rule rule = rules.get(i);
+                if (rule.matches(pathInDirectory, fileName, directory)) {
+                    return !rule.negated;
+                }
+            }
+            if (slash < 0) {
+                return false;
+            }
+            end = slash;
+        }
+    }
+
+    private List<Rule> rulesIn(String relativeDirectory) {
+        return directoryRules.computeIfAbsent(relativeDirectory, directory -> {
+            List<Rule> rules = new ArrayList<>();
+            Path path = directory.isEmpty() ? projectRoot : projectRoot.resolve(directory);
+            if (directory.isEmpty()) {
+                compile(BUILT_IN_RULES, rules);
+                compile(readLines(projectRoot.resolve(".git").resolve("info").resolve("exclude")), rules);
+            }
+            compile(readLines(path.resolve(".gitignore")), rules);
+            if (directory.isEmpty()) {
+                compile(readLines(projectRoot.resolve(IGNORE_FILE_NAME)), rules); // 插件的规则优先于 .gitignore
+            }
+            return rules.isEmpty() ? Collections.emptyList() : rules;
+        });
+    }
+
+    private static List<String> readLines(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    // 按 .gitignore 的语法编译规则
+    private static void compile(List<String> lines, List<Rule> rules) {
+        for (String line : lines) {
+            String pattern = line.trim();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated || pattern.startsWith("\\")) {
+                pattern = pattern.substring(1); // \# \! 表示以 # ! 开头的文件名
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            // 中间或开头有 / 的规则相对规则文件所在目录，否则匹配任意一级的文件名
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (!anchored && !pattern.matches(".*[*?\\[].*")) {
+                rules.add(new Rule(negated, directoryOnly, false, pattern, null));
+            } else {
+                rules.add(new Rule(negated, directoryOnly, anchored, null, Pattern.compile(toRegex(pattern))));
+            }
+        }
+    }
+
+    // 通配符转正则：** 匹配任意多级目录，* 和 ? 不跨越 /，[...] 原样保留
+    private static String toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                boolean slashAfter = i + 2 < pattern.length() && pattern.charAt(i + 2) == '/';
+                if (slashAfter) {
+                    regex.append("(?:.*/)?"); // **/ 零或多级目录
+                    i += 2;
+                } else {
+                    regex.append(".*");       // /** 目录下的所有内容
+                    i += 1;
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int close = pattern.indexOf(']', i + 1);
+                if (close < 0) {
+                    regex.append("\\[");
+                } else {
+                    String set = pattern.substring(i + 1, close);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = close;
+                }
+            } else if ("\\.^$+{}()|".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+//
+// 这个类是一轮保存的预写日志（snapshot/pack/journal.log），保证一轮保存要么全部可见、要么全部不可见：
+//   1. begin：记下 history.pack、history.idx、history.log 当前的长度，写入 "B" 行并落盘（意图）；
+//   2. 调用方追加压缩包条目、索引和文件历史（数据）；
+//   3. commit：把三个文件落盘，写入 "C" 行并落盘（提交），然后清空日志。
+// 三个文件都只追加，所以撤销一轮只需要把它们截回 begin 时的长度。
+// 打开 snapshot 时先调用 recover：日志中有没有提交的 "B" 行就截断回滚，日志为空时什么都不做，
+// 恢复的耗时只与没有完成的那一轮有关，不需要扫描历史。另外截掉 history.idx、history.log 末尾写了一半的行，
+// 否则下一次追加的内容会接在这半行后面被一起丢弃
+//
+public class Journal {
+    private static final String JOURNAL_NAME = "journal.log";
+    private static final String[] TRACKED = {"history.pack", "history.idx", "history.log"}; // 只追加的数据文件
+    private static final String[] LINE_FILES = {"history.idx", "history.log"};               // 按行追加的文件
+
+    private final Path directory;
+    private final Path journalPath;
+    private final ReentrantLock lock = new ReentrantLock(); // 同一时刻只有一轮保存在写
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+    private long currentId;
+
+    public Journal(Path directory) {
+        this.directory = directory;
+        this.journalPath = directory.resolve(JOURNAL_NAME);
+    }
+
+    // 打开数据文件之前调用：回滚没有提交的一轮，修复写了一半的行
+    public void recover() throws IOException {
+        if (Files.exists(journalPath) && Files.size(journalPath) > 0) {
+            String[] begin = null;
+            boolean committed = false;
+            for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t");
+                if (parts[0].equals("B") && parts.length == 3 + TRACKED.length) {
+                    begin = parts;
+                    committed = false;
+                } else if (parts[0].equals("C") && begin != null && parts.length == 2 && parts[1].equals(begin[1])) {
+                    committed = true;
+                }
+            }
+            if (begin != null && !committed) {
+                for (int i = 0; i < TRACKED.length; i++) {
+                    truncate(directory.resolve(TRACKED[i]), Long.parseLong(begin[3 + i]));
+                }
+                System.out.println("回滚没有完成的保存: " + begin[2]);
+            }
+            clear();
+        }
+        for (String name : LINE_FILES) {
+            truncateToLastLine(directory.resolve(name));
+        }
+    }
+
+    // 开始一轮，必须在同一线程中调用 commit 或 abort
+    public void begin(String description) throws IOException {
+        lock.lock();
+        try {
+            currentId = nextId.incrementAndGet();
+            StringBuilder line = new StringBuilder("B\t").append(currentId).append('\t')
+                    .append(description.replace('\t', ' ').replace('\n', ' '));
+            for (String name : TRACKED) {
+                Path path = directory.resolve(name);
+                line.append('\t').append(Files.exists(path) ? Files.size(path) : 0);
+            }
+            write(line.append('\n').toString(), StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    // 当前线程是否在一轮保存中（begin 之后、commit 或 abort 之前）
+    public boolean isOpen() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    // 数据落盘之后写入提交标记，然后清空日志
+    public void commit() throws IOException {
+        try {
+            for (String name : TRACKED) {
+                force(directory.resolve(name));
+            }
+            write("C\t" + currentId + "\n", StandardOpenOption.APPEND);
+            clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 这一轮出错时立即回滚，不留到下次打开。调用方需要先关闭数据文件，回滚后重新读取
+    public void abort() throws IOException {
+        try {
+            recover();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(String text, StandardOpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private void clear() throws IOException {
+        truncate(journalPath, 0);
+    }
+
+    private static void force(Path path) throws IOException {
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    private static void truncate(Path path, long size) throws IOException {
+        if (Files.exists(path) && Files.size(path) > size) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+                channel.force(true);
+            }
+        }
+    }
+
+    // 文件不以换行结尾时，截掉最后一个换行之后的半行（从末尾往前读，只读最后一行）
+    private static void truncateToLastLine(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long end = file.length();
+            long position = end;
+            byte[] buffer = new byte[4096];
+            while (position > 0) {
+                int length = (int) Math.min(buffer.length, position);
+                file.seek(position - length);
+                file.readFully(buffer, 0, length);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        long lineEnd = position - length + i + 1;
+                        if (lineEnd < end) {
+                            file.setLength(lineEnd);
+                        }
+                        return;
+                    }
+                }
+                position -= length;
+            }
+            file.setLength(0); // 整个文件只有半行
+        }
+    }
+}
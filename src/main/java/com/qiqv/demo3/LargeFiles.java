@@ -0,0 +1,357 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.UnifiedDiffUtils;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Patch;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//
+// 这个类是大文件模式：超过 SnapshotStore.CHUNK_THRESHOLD 的文件在保存时不整体读入内存。
+//   1. 磁盘上的文件按区域做内存映射后逐段读取，编辑器中没有保存的大文档逐段编码，都边读边按块保存；
+//   2. 与 base 版本对比时两边都逐行流式读取，每次只对比一个窗口（windowLines 行），
+//      在窗口中间相同的位置切开，切点之前的差异输出，之后的行留到下一个窗口；
+//   3. 文件超过 lineDiffBytes、有超长的行或者 diff 超过 maxDiffBytes 时不再按行对比，只比较块列表和哈希。
+// 所以一轮保存的内存占用只和窗口大小有关，与文件大小无关。
+// 参数可以写在 snapshot/pack/largefile.conf 中，每行 名字=数值（# 开头的行是注释），没有写的使用默认值
+//
+public class LargeFiles {
+    private static final long MAP_REGION_BYTES = 64L * 1024 * 1024; // 每次映射的区域大小
+    private static final int BINARY_CHECK_BYTES = 8000;              // 与 SnapshotStore.isBinary 相同
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(,\\d+)? \\+(\\d+)(,\\d+)? @@(.*)$");
+
+    // 大文件模式的参数
+    public static class Settings {
+        public long lineDiffBytes = 64L * 1024 * 1024; // 两边都不超过这个大小时按行对比，否则只比较块
+        public int windowLines = 20000;                // 每个窗口每一边的行数
+        public int maxLineChars = 64 * 1024;           // 超过这个长度的行（例如压缩过的代码）说明不适合按行对比
+        public long maxDiffBytes = 8L * 1024 * 1024;   // diff 超过这个大小时放弃，只比较块
+
+        // 读取 snapshot/pack/largefile.conf，文件不存在或某一行格式不对时使用默认值
+        public static Settings load(Path snapshotRoot) {
+            Settings settings = new Settings();
+            Path config = snapshotRoot.resolve("pack").resolve("largefile.conf");
+            if (!Files.exists(config)) {
+                return settings;
+            }
+            try {
+                for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    try {
+                        settings.set(line);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("无法识别的大文件参数: " + line);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return settings;
+        }
+
+        private void set(String line) {
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException(line);
+            }
+            String name = line.substring(0, equals).trim();
+            String value = line.substring(equals + 1).trim();
+            switch (name) {
+                case "lineDiffBytes":
+                    lineDiffBytes = Long.parseLong(value);
+                    break;
+                case "windowLines":
+                    windowLines = Math.max(2, Integer.parseInt(value));
+                    break;
+                case "maxLineChars":
+                    maxLineChars = Integer.parseInt(value);
+                    break;
+                case "maxDiffBytes":
+                    maxDiffBytes = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(name);
+            }
+        }
+    }
+
+    // 按区域内存映射读取文件，关闭时关闭文件
+    public static ReadableByteChannel openMapped(Path file) throws IOException {
+        return new MappedChannel(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    private static class MappedChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private MappedByteBuffer region;
+        private long position; // 下一个区域在文件中的位置
+
+        MappedChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (region == null || !region.hasRemaining()) {
+                long size = channel.size();
+                if (position >= size) {
+                    return -1;
+                }
+                long length = Math.min(MAP_REGION_BYTES, size - position);
+                region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+            int length = Math.min(destination.remaining(), region.remaining());
+            ByteBuffer slice = region.slice();
+            slice.limit(length);
+            try {
+                destination.put(slice);
+            } catch (InternalError e) {
+                throw new IOException("读取时文件被截短", e); // 映射的区域在读取过程中被其他程序截掉
+            }
+            region.position(region.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            region = null;
+            channel.close();
+        }
+    }
+
+    // 把文本逐段编码成 UTF-8，结果与 text.toString().getBytes(UTF_8) 相同，但不生成完整的字符串和字节数组
+    public static class EncodingChannel implements ReadableByteChannel {
+        private final CharBuffer input;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private boolean flushed;
+        private long bytes; // 已经输出的字节数
+
+        public EncodingChannel(CharSequence text) {
+            this.input = CharBuffer.wrap(text);
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (flushed) {
+                return -1;
+            }
+            int start = destination.position();
+            encoder.encode(input, destination, true);
+            if (!input.hasRemaining() && encoder.flush(destination).isUnderflow()) {
+                flushed = true;
+            }
+            int length = destination.position() - start;
+            bytes += length;
+            return length == 0 && flushed ? -1 : length;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !flushed;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // 按窗口逐行对比，返回与 UnifiedDiffUtils 相同格式的 diff（1 行上下文）。
+    // 没有差异时返回 null；是二进制内容、有超长的行或者 diff 超过上限时也返回 null，只按块保存
+    public static String diff(InputStream original, InputStream current, String originalName, String currentName,
+                              Settings settings) throws IOException {
+        BufferedInputStream originalBytes = new BufferedInputStream(original, 64 * 1024);
+        BufferedInputStream currentBytes = new BufferedInputStream(current, 64 * 1024);
+        if (isBinary(originalBytes) || isBinary(currentBytes)) {
+            return null;
+        }
+        LineReader originalLines = new LineReader(new InputStreamReader(originalBytes, StandardCharsets.UTF_8), settings.maxLineChars);
+        LineReader currentLines = new LineReader(new InputStreamReader(currentBytes, StandardCharsets.UTF_8), settings.maxLineChars);
+        List<String> source = new ArrayList<>();
+        List<String> target = new ArrayList<>();
+        long sourceOffset = 0; // 窗口第一行在整个文件中的行号（从 0 开始）
+        long targetOffset = 0;
+        StringBuilder diff = new StringBuilder();
+        boolean header = false;
+        while (true) {
+            if (!originalLines.fill(source, settings.windowLines) || !currentLines.fill(target, settings.windowLines)) {
+                System.out.println("大文件中有超过 " + settings.maxLineChars + " 个字符的行，只按块对比: " + currentName);
+                return null;
+            }
+            if (source.isEmpty() && target.isEmpty()) {
+                break;
+            }
+            Patch<String> patch = HistogramDiff.diff(source, target);
+            Patch<String> emitted = new Patch<>();
+            int sourceCut;
+            int targetCut;
+            if ((originalLines.isFinished() && currentLines.isFinished()) || source.isEmpty() || target.isEmpty()) {
+                // 最后一个窗口，或者一边已经没有内容：两个窗口的末尾一定是对齐的，全部输出
+                for (AbstractDelta<String> delta : patch.getDeltas()) {
+                    emitted.addDelta(delta);
+                }
+                sourceCut = source.size();
+                targetCut = target.size();
+            } else {
+                // 在旧内容窗口的中间切开：切点落在相同的行上时两边按同样的偏移对齐，落在差异中或紧跟在差异之后时往后移。
+                // 每个 hunk 末尾带差异之后的一行上下文，所以切点至少在输出的最后一个差异之后两行，
+                // 这一行留在这个窗口里，下一个窗口的 hunk 从切点开始，不会与它重叠；到了窗口末尾就在末尾切开（没有上下文）
+                sourceCut = Math.max(1, source.size() / 2);
+                int shift = 0;
+                for (AbstractDelta<String> delta : patch.getDeltas()) {
+                    if (delta.getSource().getPosition() >= sourceCut) {
+                        break;
+                    }
+                    emitted.addDelta(delta);
+                    int sourceEnd = delta.getSource().getPosition() + delta.getSource().size();
+                    shift = delta.getTarget().getPosition() + delta.getTarget().size() - sourceEnd;
+                    sourceCut = Math.max(sourceCut, Math.min(sourceEnd + 2, source.size()));
+                }
+                targetCut = sourceCut + shift;
+            }
+            if (!emitted.getDeltas().isEmpty()) {
+                List<String> lines = UnifiedDiffUtils.generateUnifiedDiff(originalName, currentName, source, emitted, 1);
+                // 前两行是 ---、+++ 文件头，只在第一个窗口输出
+                for (int i = header ? 2 : 0; i < lines.size(); i++) {
+                    if (diff.length() > 0) {
+                        diff.append('\n');
+                    }
+                    diff.append(i < 2 ? lines.get(i) : shiftHunk(lines.get(i), sourceOffset, targetOffset));
+                }
+                header = true;
+                if (diff.length() > settings.maxDiffBytes) {
+                    System.out.println("大文件的 diff 超过 " + settings.maxDiffBytes + " 字节，只按块对比: " + currentName);
+                    return null;
+                }
+            }
+            source.subList(0, sourceCut).clear();
+            target.subList(0, targetCut).clear();
+            sourceOffset += sourceCut;
+            targetOffset += targetCut;
+        }
+        return diff.length() == 0 ? null : diff.toString();
+    }
+
+    // 窗口内的 hunk 行号加上窗口在文件中的起始行号
+    private static String shiftHunk(String line, long sourceOffset, long targetOffset) {
+        Matcher matcher = HUNK_HEADER.matcher(line);
+        if (!matcher.matches()) {
+            return line;
+        }
+        return "@@ -" + (Long.parseLong(matcher.group(1)) + sourceOffset) + (matcher.group(2) != null ? matcher.group(2) : "")
+                + " +" + (Long.parseLong(matcher.group(3)) + targetOffset) + (matcher.group(4) != null ? matcher.group(4) : "")
+                + " @@" + matcher.group(5);
+    }
+
+    private static boolean isBinary(BufferedInputStream in) throws IOException {
+        in.mark(BINARY_CHECK_BYTES);
+        byte[] head = in.readNBytes(BINARY_CHECK_BYTES);
+        in.reset();
+        return SnapshotStore.isBinary(head);
+    }
+
+    // 逐行读取，换行规则与 BufferedReader.readLine 相同；行太长时停止读取
+    private static class LineReader {
+        private final Reader reader;
+        private final int maxLineChars;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private boolean finished;
+        private boolean skipLineFeed; // 上一行以 \r 结尾，下一个 \n 属于上一行
+
+        LineReader(Reader reader, int maxLineChars) {
+            this.reader = reader;
+            this.maxLineChars = maxLineChars;
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        // 把窗口补满到 count 行，遇到超长的行时返回 false
+        boolean fill(List<String> lines, int count) throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (lines.size() < count && !finished) {
+                line.setLength(0);
+                int result = readLine(line);
+                if (result < 0) {
+                    return false;
+                }
+                if (result > 0) {
+                    lines.add(line.toString());
+                }
+            }
+            return true;
+        }
+
+        // 读取一行：返回 1 表示读到一行，0 表示已经读完，-1 表示行太长
+        private int readLine(StringBuilder line) throws IOException {
+            boolean empty = true;
+            while (true) {
+                if (position >= limit) {
+                    limit = reader.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        finished = true;
+                        return empty ? 0 : 1;
+                    }
+                }
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (buffer[position] == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+                empty = false;
+                int start = position;
+                while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+                    position++;
+                }
+                line.append(buffer, start, position - start);
+                if (line.length() > maxLineChars) {
+                    return -1;
+                }
+                if (position < limit) {
+                    skipLineFeed = buffer[position] == '\r';
+                    position++;
+                    return 1;
+                }
+            }
+        }
+    }
+}
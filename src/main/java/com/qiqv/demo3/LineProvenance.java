@@ -0,0 +1,329 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Patch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//
+// 这个类是每个文件的行来源索引（本地 blame）：记录文件最新保存状态中每一行最后一次被修改的保存时刻。
+// 文件历史每提交一个新状态，就在后台用它与前一个状态的 Patch 更新：没有变化的行沿用原来的时刻，新插入或修改的行记为这一时刻，
+// 所以每次更新和每次查询都只和文件的行数有关，与历史长度无关。
+// 索引追加保存在 snapshot/index/provenance.dat，每条记录是一个文件的完整结果：
+//   相对路径, 对应的保存时刻, 这一时刻内容的哈希, 段数, 每段 (行数, 时刻)（相邻时刻相同的行合并成一段），
+// 同一个文件后写的记录覆盖前面的，失效的记录超过一半时重写整个文件。
+// 整理历史之后，对应的时刻已被删除、内容的哈希对不上，或者某一行的时刻已被删除的记录作废，从头重新计算
+//
+public class LineProvenance {
+    public static final long NOT_CAPTURED = -1; // 编辑器中还没有保存进历史的行
+
+    // 一个文件在索引文件中的最新记录
+    private static class Entry {
+        final long head;    // 对应的保存时刻
+        final String hash;  // 这一时刻内容的哈希，文件已删除时为空串
+        final long offset;  // 记录在 provenance.dat 中的位置
+        final int length;   // 记录的字节数
+
+        Entry(long head, String hash, long offset, int length) {
+            this.head = head;
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final SnapshotStore snapshotStore;
+    private final Path dataPath;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(); // 相对路径 -> 最新记录
+    private final Set<String> pendingPaths = Collections.newSetFromMap(new ConcurrentHashMap<>()); // 等待更新的文件
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VersionTracker-LineProvenance");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public LineProvenance(SnapshotStore snapshotStore, Path dataPath) throws IOException {
+        this.snapshotStore = snapshotStore;
+        this.dataPath = dataPath;
+        load();
+    }
+
+    // 读取索引文件中每个文件的最新记录，写了一半的尾部截掉，失效的记录太多时重写
+    private void load() throws IOException {
+        if (!Files.exists(dataPath)) {
+            return;
+        }
+        long position = 0;
+        long liveBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dataPath)))) {
+            while (true) {
+                try {
+                    int length = in.readInt();
+                    byte[] record = new byte[length];
+                    in.readFully(record);
+                    DataInputStream header = new DataInputStream(new ByteArrayInputStream(record));
+                    String relativePath = header.readUTF();
+                    long head = header.readLong();
+                    String hash = header.readUTF();
+                    Entry previous = entries.put(relativePath, new Entry(head, hash, position + 4, length));
+                    liveBytes += length - (previous != null ? previous.length : 0);
+                    position += 4 + length;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        if (position < Files.size(dataPath)) {
+            try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.WRITE)) {
+                channel.truncate(position);
+            }
+        }
+        if (position > 1024 * 1024 && liveBytes * 2 < position) {
+            rewrite();
+        }
+    }
+
+    // 只保留每个文件的最新记录，先写临时文件再原子替换
+    private synchronized void rewrite() throws IOException {
+        Path temp = dataPath.resolveSibling(dataPath.getFileName() + ".new");
+        Map<String, Entry> rewritten = new ConcurrentHashMap<>();
+        try (RandomAccessFile source = new RandomAccessFile(dataPath.toFile(), "r");
+             DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] record = new byte[entry.getValue().length];
+                source.seek(entry.getValue().offset);
+                source.readFully(record);
+                rewritten.put(entry.getKey(), new Entry(entry.getValue().head, entry.getValue().hash, out.size() + 4, record.length));
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        Files.move(temp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.clear();
+        entries.putAll(rewritten);
+    }
+
+    // 文件历史提交了新的记录，在后台更新这些文件
+    public void enqueue(Collection<String> relativePaths) {
+        pendingPaths.addAll(relativePaths);
+        executor.execute(this::catchUp);
+    }
+
+    // 整理历史删除了一些状态，这些文件的记录可能已经作废，在后台重新检查
+    public void compacted(Map<String, Long> firstDropped) {
+        enqueue(firstDropped.keySet());
+    }
+
+    // 更新所有落后于文件历史的文件（第一次打开或上次退出时还没更新完）
+    public void enqueueAll() throws IOException {
+        enqueue(snapshotStore.getHistory().paths());
+    }
+
+    private void catchUp() {
+        for (String relativePath : new ArrayList<>(pendingPaths)) {
+            pendingPaths.remove(relativePath);
+            try {
+                update(relativePath);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("无法更新行来源索引: " + relativePath);
+            }
+        }
+    }
+
+    // 把一个文件更新到文件历史中的最新状态：从已经记录的状态开始，依次应用后面每个状态相对前一个状态的 Patch
+    private synchronized long[] update(String relativePath) throws IOException {
+        if (!snapshotStore.tryBeginCapture()) {
+            pendingPaths.add(relativePath); // 正在整理历史，下一次提交时再更新
+            return null;
+        }
+        try {
+            VersionHistory history = snapshotStore.getHistory();
+            Entry entry = entries.get(relativePath);
+            List<Long> timestamps = history.timestamps(relativePath);
+            long[] provenance = entry != null ? read(entry) : null;
+            if (entry != null && !isCurrent(history, relativePath, entry, provenance, timestamps)) {
+                // 记录的时刻已经被整理掉，从头重新计算这个文件
+                entries.remove(relativePath);
+                entry = null;
+                provenance = null;
+            }
+            if (timestamps.isEmpty() || (entry != null && entry.head >= timestamps.get(timestamps.size() - 1))) {
+                return entry != null && entry.hash.isEmpty() ? null : provenance; // 文件已删除
+            }
+            List<String> previous = entry != null ? linesOf(history.reconstruct(relativePath, entry.head)) : null;
+            long head = entry != null ? entry.head : Long.MIN_VALUE;
+            for (long timestamp : timestamps) {
+                if (timestamp <= head) {
+                    continue;
+                }
+                List<String> current = linesOf(history.reconstruct(relativePath, timestamp));
+                if (current == null) {
+                    provenance = null; // 文件被删除
+                } else if (previous == null || provenance == null) {
+                    provenance = new long[current.size()];
+                    Arrays.fill(provenance, timestamp);
+                } else {
+                    provenance = apply(provenance, HistogramDiff.diff(previous, current), current.size(), timestamp);
+                }
+                previous = current;
+                head = timestamp;
+            }
+            String hash = history.hashAt(relativePath, head);
+            write(relativePath, head, hash != null ? hash : "", provenance != null ? provenance : new long[0]);
+            return provenance;
+        } finally {
+            snapshotStore.endCapture();
+        }
+    }
+
+    // 记录对应的状态仍在文件历史中且内容没有变，每一行的修改时刻也都还在
+    private static boolean isCurrent(VersionHistory history, String relativePath, Entry entry, long[] provenance,
+                                     List<Long> timestamps) {
+        Set<Long> kept = new HashSet<>(timestamps);
+        String hash = history.hashAt(relativePath, entry.head);
+        if (!kept.contains(entry.head) || !entry.hash.equals(hash != null ? hash : "")) {
+            return false;
+        }
+        for (long timestamp : provenance) {
+            if (!kept.contains(timestamp)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 没有变化的行沿用原来的时刻，Patch 中插入或修改的行记为 timestamp
+    static long[] apply(long[] provenance, Patch<String> patch, int size, long timestamp) {
+        long[] result = new long[size];
+        int source = 0;
+        int target = 0;
+        for (AbstractDelta<String> delta : patch.getDeltas()) {
+            while (source < delta.getSource().getPosition()) {
+                result[target++] = provenance[source++];
+            }
+            for (int i = 0; i < delta.getTarget().size(); i++) {
+                result[target++] = timestamp;
+            }
+            source += delta.getSource().size();
+        }
+        while (source < provenance.length) {
+            result[target++] = provenance[source++];
+        }
+        return result;
+    }
+
+    // 二进制内容和大文件没有行，文件不存在时返回 null
+    private static List<String> linesOf(byte[] content) throws IOException {
+        if (content == null) {
+            return null;
+        }
+        if (content.length > SnapshotStore.CHUNK_THRESHOLD || SnapshotStore.isBinary(content)) {
+            return Collections.emptyList();
+        }
+        return SnapshotStore.toLines(content);
+    }
+
+    private void write(String relativePath, long head, String hash, long[] provenance) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(relativePath);
+            out.writeLong(head);
+            out.writeUTF(hash);
+            List<long[]> runs = new ArrayList<>();
+            for (long timestamp : provenance) {
+                if (!runs.isEmpty() && runs.get(runs.size() - 1)[1] == timestamp) {
+                    runs.get(runs.size() - 1)[0]++;
+                } else {
+                    runs.add(new long[]{1, timestamp});
+                }
+            }
+            out.writeInt(runs.size());
+            for (long[] run : runs) {
+                out.writeInt((int) run[0]);
+                out.writeLong(run[1]);
+            }
+        }
+        byte[] record = bytes.toByteArray();
+        Files.createDirectories(dataPath.getParent());
+        long position = Files.exists(dataPath) ? Files.size(dataPath) : 0;
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(record.length + 4);
+        try (DataOutputStream out = new DataOutputStream(framed)) {
+            out.writeInt(record.length);
+            out.write(record);
+        }
+        Files.write(dataPath, framed.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        entries.put(relativePath, new Entry(head, hash, position + 4, record.length));
+    }
+
+    private long[] read(Entry entry) throws IOException {
+        byte[] record = new byte[entry.length];
+        try (RandomAccessFile file = new RandomAccessFile(dataPath.toFile(), "r")) {
+            file.seek(entry.offset);
+            file.readFully(record);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readUTF();
+        in.readLong();
+        in.readUTF();
+        int runs = in.readInt();
+        List<long[]> decoded = new ArrayList<>(runs);
+        int size = 0;
+        for (int i = 0; i < runs; i++) {
+            long[] run = {in.readInt(), in.readLong()};
+            decoded.add(run);
+            size += (int) run[0];
+        }
+        long[] provenance = new long[size];
+        int line = 0;
+        for (long[] run : decoded) {
+            for (int i = 0; i < run[0]; i++) {
+                provenance[line++] = run[1];
+            }
+        }
+        return provenance;
+    }
+
+    // 文件最新保存状态中每一行最后一次修改的时刻；索引落后于文件历史时先同步更新。没有历史时返回 null
+    public long[] annotate(String relativePath) throws IOException {
+        pendingPaths.remove(relativePath);
+        return update(relativePath);
+    }
+
+    // 按编辑器中的当前内容标注：与最新保存状态对比一次，没有变化的行取索引中的时刻，还没保存进历史的行为 NOT_CAPTURED
+    public long[] annotate(String relativePath, List<String> currentLines) throws IOException {
+        long[] provenance = annotate(relativePath);
+        if (provenance == null) {
+            return null;
+        }
+        List<String> captured = linesOf(snapshotStore.getHistory().readLatest(relativePath));
+        if (captured == null || captured.size() != provenance.length) {
+            return null; // 文件已删除，或者是没有行的二进制内容
+        }
+        return apply(provenance, HistogramDiff.diff(captured, currentLines), currentLines.size(), NOT_CAPTURED);
+    }
+}
@@ -17,13 +17,14 @@ public class MainManager {
 
     public void startAutoSave() {
         if (versionManager != null) {
-            versionManager.startAutoSave(5); // 开始自动保存
+            versionManager.startAutoSave(); // 开始自动保存
         }
     }
 
     public void stopAutoSave(){
         if (versionManager != null) {
             versionManager.stopAutoSave(); // 停止自动保存
+            MyFileListener.unregisterListener(myFileListener); // 断开文件监听
         }
     }
 
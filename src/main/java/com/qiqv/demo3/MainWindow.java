@@ -1,33 +1,44 @@
 package com.qiqv.demo3;
 
-import com.github.difflib.DiffUtils;
-import com.github.difflib.UnifiedDiffUtils;
+import com.github.difflib.patch.AbstractDelta;
 import com.github.difflib.patch.Patch;
-import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
 import com.intellij.openapi.editor.colors.EditorFontType;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
-import static com.qiqv.demo3.HighLight.highlightDifferences;
+import static com.qiqv.demo3.HighLight.highlightPatch;
 
 public class MainWindow
 {
+    // 还原出的文件内容和用于显示的差异的缓存，最多占用 64MB
+    private final ReconstructionCache cache = new ReconstructionCache(64L * 1024 * 1024);
+    private SwingWorker<?, ?> displayWorker; // 正在读取和对比的后台任务
+    private String selectedVersionKey; // 右键选中的 version/Version_xxx 或 diff/diff_xxx/
+    private String selectedDiffPath; // 右键选中的 .diff 条目
+
     // 显示保存的内容在 UI 界面，使用 IntelliJ 的 Editor 组件
     public void showSavedContentUI(VirtualFile rootDirectory, Project project) {
         // 创建 JFrame 作为主窗口
@@ -74,37 +85,43 @@ public class MainWindow
         // 添加树选择监听器
         fileTree.addTreeSelectionListener(e -> {
             DefaultMutableTreeNode selectedNode = (DefaultMutableTreeNode) fileTree.getLastSelectedPathComponent();
-            if (selectedNode != null && selectedNode.getUserObject() instanceof VirtualFile) {
-                VirtualFile selectedFile = (VirtualFile) selectedNode.getUserObject();
-                // 解析了 .diff 文件获取了路径
-                String diffFilePath = selectedFile.getPath();
-                // 合并文件内容
-                java.util.List<String> newContentLine = showFileContent(diffFilePath,textArea1,1);
-                //当前内容
-                java.util.List<String> targetContentLine = showFileContent(diffFilePath,textArea2,2);
-                generateNewDiffForDisplay(newContentLine, targetContentLine, project);
-                // 读取 diff 文件并解析差异
-                // 找到 compare 文件夹下的 difference.diff 文件并解析
-                VirtualFile projectRoot = project.getBaseDir();  // 获取项目的根目录
-                File compareDir = new File(projectRoot.getPath() + "/compare");  // 动态创建 'compare' 文件夹路径
-                // 生成 difference.diff 文件的完整路径
-                File difference = new File(compareDir, "difference.diff");
-                ShowDiff.Diff diff = ShowDiff.parseDiffFile(difference.getPath());
-                java.util.List<String> diffLinesCompare =diff.diffLines;
-                // 高亮显示文件内容的差异
-                try {
-                    highlightDifferences(newContentLine, targetContentLine, diffLinesCompare, textArea1, textArea2);
-                } catch (BadLocationException ex) {
-                    throw new RuntimeException(ex);
+            String selectedPath = getEntryPath(selectedNode);
+            if (selectedPath != null && selectedPath.endsWith(".diff")) {
+                // 读取、还原和对比都在后台线程中完成，完成后回到 EDT 显示，连续点击时放弃上一次还没完成的任务
+                if (displayWorker != null) {
+                    displayWorker.cancel(false);
                 }
+                String diffFilePath = selectedPath;
+                Metrics.Action action = Metrics.beginAction("show", diffFilePath);
+                displayWorker = new SwingWorker<DisplayContent, Void>() {
+                    @Override
+                    protected DisplayContent doInBackground() {
+                        return loadDisplayContent(diffFilePath);
+                    }
 
-
+                    @Override
+                    protected void done() {
+                        if (isCancelled()) {
+                            return;
+                        }
+                        try {
+                            showDisplayContent(get(), textArea1, textArea2);
+                            Metrics.endAction(action); // 从点击到显示、高亮完成
+                        } catch (InterruptedException | ExecutionException ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                };
+                displayWorker.execute();
             }
         });
         // 创建右键菜单
         JPopupMenu popupMenu = new JPopupMenu();
         JMenuItem recoverMenuItem = new JMenuItem("恢复文件");
         popupMenu.add(recoverMenuItem);
+        JPopupMenu versionPopupMenu = new JPopupMenu();
+        JMenuItem restoreVersionMenuItem = new JMenuItem("恢复整个版本");
+        versionPopupMenu.add(restoreVersionMenuItem);
 
         // 添加鼠标监听器，用于检测右键点击
         fileTree.addMouseListener(new MouseAdapter() {
@@ -117,35 +134,47 @@ public class MainWindow
                         fileTree.setSelectionPath(path);
                         DefaultMutableTreeNode selectedNode = (DefaultMutableTreeNode) fileTree.getLastSelectedPathComponent();
 
-                        // 确保选择的节点是 VirtualFile 对象
-                        if (selectedNode != null && selectedNode.getUserObject() instanceof VirtualFile) {
-                            VirtualFile selectedFile1 = (VirtualFile) selectedNode.getUserObject();
+                        // 确保选择的节点是 .diff 条目
+                        String selectedPath1 = getEntryPath(selectedNode);
+                        if (selectedPath1 != null && selectedPath1.endsWith(".diff")) {
 
+                            selectedDiffPath = selectedPath1;
                             // 在鼠标位置显示右键菜单
                             popupMenu.show(fileTree, e.getX(), e.getY());
-
-                            // 给“恢复文件”菜单项添加事件监听器
-                            recoverMenuItem.addActionListener(event -> {
-                                // 解析了 .diff 文件获取了路径
-                                String diffFilePath = selectedFile1.getPath();
-                                // 合并文件内容
-                                ShowDiff.Diff diff = ShowDiff.parseDiffFile(diffFilePath);
-                                String originalContent = ShowDiff.readFileContent(diff.originalFilePath);
-                                String newContent = ShowDiff.applyDiff(originalContent, diff.diffLines);
-                                List<String> newContentLine2 = Arrays.asList(newContent.split("\n"));
-
-                                // 打印或处理 selectedFile 对象
-                                System.out.println("选中的文件: " + selectedFile1.getPath()+"wenjianlujing"+diff.targetFilePath);
-
-                                // 执行文件恢复操作
-                                Recover.writeFile(newContentLine2, diff.targetFilePath);
-                            });
+                        } else if (getVersionKey(selectedNode, SnapShot.getPath()) != null) {
+                            // 版本清单或 diff 文件夹，可以恢复整个版本
+                            selectedVersionKey = getVersionKey(selectedNode, SnapShot.getPath());
+                            versionPopupMenu.show(fileTree, e.getX(), e.getY());
                         }
                     }
                 }
             }
         });
-
+        // 给“恢复文件”菜单项添加事件监听器，只添加一次，恢复的是右键选中的条目
+        recoverMenuItem.addActionListener(event -> recoverFile(selectedDiffPath));
+        restoreVersionMenuItem.addActionListener(event -> restoreVersion(frame, Paths.get(SnapShot.getPath()), selectedVersionKey));
+
+
+        // 整理历史删除了 diff 之后，丢弃这些 diff 的缓存
+        SnapshotStore store = SnapshotStore.forRoot(Paths.get(SnapShot.getPath()));
+        Consumer<List<String>> removalListener = keys -> {
+            for (String key : keys) {
+                String entryPath = SnapShot.getPath() + "/" + key;
+                cache.removeByPrefix("diff:" + entryPath);
+                cache.removeByPrefix("content:" + entryPath);
+                cache.removeByPrefix("display:" + entryPath + ":");
+            }
+        };
+        store.addRemovalListener(removalListener);
+
+        // 窗口关闭后不再接收新版本、删除条目的通知
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                ((SnapshotTreeModel) fileTree.getModel()).dispose();
+                store.removeRemovalListener(removalListener);
+            }
+        });
 
         // 显示窗口
         frame.setVisible(true);
@@ -164,113 +193,205 @@ public class MainWindow
     }
 
 
-    // 创建项目文件的 JTree
+    // 创建项目文件的 JTree：文件夹在展开时才读取子节点，窗口打开时不遍历整个 snapshot 目录
     private JTree createFileTree(VirtualFile rootDirectory) {
-        DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(rootDirectory.getName());
-        createTreeNodes(rootDirectory, rootNode);
-
-        DefaultTreeModel treeModel = new DefaultTreeModel(rootNode);
+        SnapshotTreeModel treeModel = new SnapshotTreeModel(Paths.get(rootDirectory.getPath()));
         JTree fileTree = new JTree(treeModel);
         fileTree.setRootVisible(false); // 隐藏根节点
+        fileTree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                Object node = event.getPath().getLastPathComponent();
+                if (node instanceof SnapshotTreeModel.FolderNode && !((SnapshotTreeModel.FolderNode) node).isLoaded()) {
+                    treeModel.loadChildren((SnapshotTreeModel.FolderNode) node);
+                    treeModel.nodeStructureChanged((SnapshotTreeModel.FolderNode) node);
+                }
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+        });
         return fileTree;
     }
 
-    // 递归创建 JTree 的节点
-    private void createTreeNodes(VirtualFile directory, DefaultMutableTreeNode parentNode) {
-        for (VirtualFile file : directory.getChildren()) {
-            DefaultMutableTreeNode childNode = new DefaultMutableTreeNode(file) {
-                @Override
-                public String toString() {
-                    return file.getName();  // 只显示文件名
+    // 取得节点对应的条目路径，叶子节点的 userObject 是条目的完整路径
+    private String getEntryPath(DefaultMutableTreeNode node) {
+        if (node == null || !node.isLeaf()) {
+            return null;
+        }
+        Object userObject = node.getUserObject();
+        return userObject instanceof String && ((String) userObject).contains("/") ? (String) userObject : null;
+    }
+
+    // 取得节点对应的版本：version/ 下的版本清单返回 version/Version_xxx，diff/ 下的文件夹返回 diff/diff_xxx/，其他节点返回 null
+    private String getVersionKey(DefaultMutableTreeNode node, String snapshotPath) {
+        if (node instanceof SnapshotTreeModel.FolderNode) {
+            String prefix = ((SnapshotTreeModel.FolderNode) node).getPrefix();
+            return prefix.matches("diff/diff_[^/]+/") ? prefix : null;
+        }
+        String entryPath = getEntryPath(node);
+        if (entryPath == null || !entryPath.startsWith(snapshotPath + "/version/")) {
+            return null;
+        }
+        String key = entryPath.substring(snapshotPath.length() + 1);
+        return key.matches("version/Version_[^/]+") ? key : null;
+    }
+
+    // 在后台线程中把文件恢复为这个 diff 所记录的那一轮保存时的内容
+    private void recoverFile(String diffFilePath) {
+        if (diffFilePath == null) {
+            return;
+        }
+        Metrics.Action action = Metrics.beginAction("restoreFile", diffFilePath);
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() {
+                // 合并文件内容
+                ShowDiff.Diff diff = getDiff(diffFilePath);
+                String newContent = getDiffTarget(diffFilePath, diff);
+                if (newContent == null) {
+                    return false;
                 }
-            };
-            parentNode.add(childNode);
+                List<String> newContentLine2 = Arrays.asList(newContent.split("\n"));
 
-            if (file.isDirectory()) {
-                createTreeNodes(file, childNode); // 如果是目录，继续递归
+                // 打印或处理 selectedFile 对象
+                System.out.println("选中的文件: " + diffFilePath+"wenjianlujing"+diff.targetFilePath);
+
+                // 执行文件恢复操作
+                Recover.writeFile(newContentLine2, diff.targetFilePath);
+                return true;
             }
-        }
+
+            @Override
+            protected void done() {
+                try {
+                    if (get()) {
+                        Metrics.endAction(action);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
     }
 
-    //传出来两个文件的包含每一行内容的List
-    public List<String> showFileContent(String diffFilePath,  JTextArea textArea,int textAreaNum) {
-        // 解析 .diff 文件
-        ShowDiff.Diff diff = ShowDiff.parseDiffFile(diffFilePath);
-        // 读取初始文件内容
-        String originalContent = ShowDiff.readFileContent(diff.originalFilePath);
+    // 确认后在后台线程中恢复整个版本，完成后显示结果
+    private void restoreVersion(JFrame frame, Path snapshotRoot, String versionKey) {
+        int choice = JOptionPane.showConfirmDialog(frame, "将项目文件恢复到 " + versionKey + " 时的内容？", "恢复整个版本",
+                JOptionPane.OK_CANCEL_OPTION);
+        if (choice != JOptionPane.OK_OPTION) {
+            return;
+        }
+        Metrics.Action action = Metrics.beginAction("restoreVersion", versionKey);
+        new SwingWorker<Recover.RestoreResult, Void>() {
+            @Override
+            protected Recover.RestoreResult doInBackground() throws IOException {
+                return Recover.restoreVersion(snapshotRoot, versionKey);
+            }
 
-        String targetContent = ShowDiff.readFileContent(diff.targetFilePath);
+            @Override
+            protected void done() {
+                try {
+                    Recover.RestoreResult result = get();
+                    Metrics.endAction(action);
+                    JOptionPane.showMessageDialog(frame, "已恢复 " + result.restoredFiles.size() + " 个文件，"
+                            + result.unchangedFiles + " 个文件未变化");
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, "恢复失败: " + ex.getCause(), "恢复整个版本", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
 
+    // 一次选择需要显示的内容：这一轮保存时的内容、当前内容和两者的差异
+    private static class DisplayContent {
+        String newContent;          // 这一轮保存时的文件内容，无法还原时为 null
+        List<String> newContentLine;
+        String targetContent;       // 当前文件内容，文件已删除时为 null
+        List<String> targetContentLine;
+        Patch<String> patch;        // 两者的差异，任一内容为 null 时为 null
+    }
 
-        if (originalContent == null) {
-            return null;
+    // 在后台线程中读取并对比，结果不涉及任何 UI 组件
+    private DisplayContent loadDisplayContent(String diffFilePath) {
+        DisplayContent content = new DisplayContent();
+        // 解析 .diff 文件
+        ShowDiff.Diff diff = getDiff(diffFilePath);
+        // 取得这一轮保存时的文件内容
+        content.newContent = getDiffTarget(diffFilePath, diff);
+        if (content.newContent != null) {
+            content.newContentLine = Arrays.asList(content.newContent.split("\n"));
+        }
+        if (diff.targetFilePath != null && new File(diff.targetFilePath).exists()) {
+            content.targetContent = ShowDiff.readFileContent(diff.targetFilePath);
         }
-        if (textAreaNum == 1) {
-            // 应用 .diff 差异，生成新文件内容
-            String newContent = ShowDiff.applyDiff(originalContent, diff.diffLines);
-            List<String> newContentLine = Arrays.asList(newContent.split("\n"));
-            textArea.setText(newContent);
+        if (content.targetContent != null) {
+            content.targetContentLine = Arrays.asList(content.targetContent.split("\n"));
+        }
+        if (content.newContentLine != null && content.targetContentLine != null) {
+            content.patch = getDisplayPatch(diffFilePath, content.newContentLine, content.targetContent, content.targetContentLine);
+        }
+        return content;
+    }
+
+    // 在 EDT 中显示内容并高亮差异
+    private void showDisplayContent(DisplayContent content, JTextArea textArea1, JTextArea textArea2) {
+        if (content.newContent != null) {
             // 显示最终的合成文件内容
-            return newContentLine;
+            textArea1.setText(content.newContent);
         }
-        else {
-            File targetFile = new File(diff.targetFilePath);
-            if (!targetFile.exists()) {
-                textArea.setText("The file has been deleted.");
-                return null; // 或者可以返回一个空列表，视你的需求而定
+        textArea2.setText(content.targetContent != null ? content.targetContent : "The file has been deleted.");
+        if (content.patch == null) {
+            return;
+        }
+        // 高亮显示文件内容的差异
+        try {
+            highlightPatch(content.newContentLine, content.targetContentLine, content.patch, textArea1, textArea2);
+        } catch (BadLocationException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    // 解析 .diff 文件，历史中的 diff 写入后不再改变，解析结果可以缓存
+    private ShowDiff.Diff getDiff(String diffFilePath) {
+        String key = "diff:" + diffFilePath;
+        ShowDiff.Diff diff = (ShowDiff.Diff) cache.get(key);
+        if (diff == null) {
+            diff = ShowDiff.parseDiffFile(diffFilePath);
+            cache.put(key, diff, ReconstructionCache.sizeOf(diff.diffLines)
+                    + ReconstructionCache.sizeOf(diff.originalFilePath) + ReconstructionCache.sizeOf(diff.targetFilePath));
+        }
+        return diff;
+    }
+
+    // 取得 diff 所记录的那一轮保存时的文件内容，还原结果按 diff 文件缓存
+    private String getDiffTarget(String diffFilePath, ShowDiff.Diff diff) {
+        String key = "content:" + diffFilePath;
+        String content = (String) cache.get(key);
+        if (content == null) {
+            content = ShowDiff.readDiffTarget(diffFilePath, diff);
+            if (content != null) {
+                cache.put(key, content, ReconstructionCache.sizeOf(content));
             }
-            List<String> targetContentLine = Arrays.asList(targetContent.split("\n"));
-            textArea.setText(targetContent);
-            return targetContentLine;
         }
-    }//sh
-
-    // 生成新的 .diff 文件
-    public void generateNewDiffForDisplay(List<String> newContent, List<String> targetContent, Project project) {
-        // 获得当前版本和 base 版本的 diff 内容
-        System.out.printf("###进入 generateNewDiffForDisplay 方法\n");
-        Patch<String> patch = DiffUtils.diff(newContent, targetContent);
-        System.out.printf("###对比两个不同的 list 结束\n");
-
-        // 创建相应的文件夹，并将 diff 文件写入文件夹中
-        WriteCommandAction.runWriteCommandAction(project, () -> {
-            try {
-                System.out.printf("###进入 try\n");
-
-                // 获取项目的根目录（通过 IntelliJ 项目对象）
-                VirtualFile projectRoot = project.getBaseDir();  // 获取项目的根目录
-                File compareDir = new File(projectRoot.getPath() + "/compare");  // 动态创建 'compare' 文件夹路径
-
-                // 检查 'compare' 文件夹是否存在
-                if (!compareDir.exists()) {
-                    // 如果文件夹不存在，则创建它
-                    compareDir.mkdir();  // 创建文件夹
-                    System.out.println("### 'compare' 文件夹已创建: " + compareDir.getPath());
-                } else {
-                    System.out.println("### 'compare' 文件夹已存在: " + compareDir.getPath());
-                }
+        return content;
+    }
 
-                // 使用 DiffUtils 来生成统一 diff
-                List<String> unifiedDiff = UnifiedDiffUtils.generateUnifiedDiff(
-                        "originalFileName",  // 原始文件名
-                        "currentFileName",   // 当前文件名
-                        newContent,          // 原始文件内容
-                        patch,               // Patch 对象
-                        1                    // 上下文行数，一般为 3
-                );
-
-                // 将生成的 diff 列表合并为单个字符串
-                String diffContentForDisplay = String.join("\n", unifiedDiff);
-                System.out.printf("###生成了 diff 文件\n");
-
-                // 将差异文件写入 'compare' 文件夹中的 difference.diff 文件
-                File diffFile = new File(compareDir, "difference.diff");
-                FileUtil.writeToFile(diffFile, diffContentForDisplay);
-                System.out.println("### diff 文件已写入: " + diffFile.getPath());
-
-            } catch (IOException e) {
-                e.printStackTrace();
+    // 对比这一轮保存时的内容和当前内容，差异按 diff 文件和当前内容的哈希缓存，当前文件没有改动时来回切换不需要重新对比
+    private Patch<String> getDisplayPatch(String diffFilePath, List<String> newContent, String targetContent, List<String> targetContentLine) {
+        String key = "display:" + diffFilePath + ":" + SnapshotStore.hash(targetContent.getBytes(StandardCharsets.UTF_8));
+        @SuppressWarnings("unchecked")
+        Patch<String> patch = (Patch<String>) cache.get(key);
+        if (patch == null) {
+            patch = HistogramDiff.diff(newContent, targetContentLine);
+            long bytes = 0;
+            for (AbstractDelta<String> delta : patch.getDeltas()) {
+                bytes += 64 + ReconstructionCache.sizeOf(delta.getSource().getLines()) + ReconstructionCache.sizeOf(delta.getTarget().getLines());
             }
-        });
+            cache.put(key, patch, bytes);
+        }
+        return patch;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,224 @@
+package com.qiqv.demo3;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+//
+// 这个类记录每一轮保存和每次查看操作的耗时和数据量：
+// 每一轮、每次操作提交一个 JFR 事件（VersionTracker 分类），开启 JFR 录制后可以在 JDK Mission Control 中查看；
+// 同时在内存中保留每项耗时最近 WINDOW_SIZE 个样本，用于计算分位数，显示在状态栏中（见 MetricsStatusBarWidget）
+//
+public class Metrics {
+    private static final int WINDOW_SIZE = 256; // 每项耗时保留的样本数
+
+    // 一轮保存结束时提交的 JFR 事件，事件本身的时长是整轮的耗时
+    @Name("com.qiqv.demo3.CaptureCycle")
+    @Label("Capture Cycle")
+    @Category("VersionTracker")
+    @Description("一轮自动保存：保存整个版本（version）或生成 diff（diff）")
+    public static class CycleEvent extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("Scan Time") @Timespan(Timespan.NANOSECONDS)
+        long scanTime;
+        @Label("Read Time") @Timespan(Timespan.NANOSECONDS)
+        long readTime;
+        @Label("Diff Time") @Timespan(Timespan.NANOSECONDS)
+        long diffTime;
+        @Label("Write Time") @Timespan(Timespan.NANOSECONDS)
+        long writeTime;
+        @Label("Files Scanned")
+        int filesScanned;
+        @Label("Files Changed")
+        int filesChanged;
+        @Label("Files Skipped")
+        int filesSkipped;
+        @Label("Bytes Skipped") @DataAmount
+        long bytesSkipped;
+        @Label("Bytes Read") @DataAmount
+        long bytesRead;
+        @Label("Bytes Written") @DataAmount
+        long bytesWritten;
+        @Label("Backlog")
+        int backlog;
+    }
+
+    // 一次查看操作结束时提交的 JFR 事件
+    @Name("com.qiqv.demo3.ViewerAction")
+    @Label("Viewer Action")
+    @Category("VersionTracker")
+    @Description("snapshot 浏览窗口中的一次操作：显示 diff、恢复文件、恢复整个版本")
+    public static class ActionEvent extends Event {
+        @Label("Action")
+        String action;
+        @Label("Target")
+        String target;
+    }
+
+    // 一轮保存的统计，各阶段的耗时由调用方填写
+    public static class Cycle {
+        public final String kind;    // version 或 diff
+        public final int backlog;    // 开始时变更日志中积压的路径数
+        public long scanNanos;       // 遍历目录或检查脏文件
+        public long readNanos;       // 读取文件内容，并行读取时为各文件耗时之和
+        public long diffNanos;       // 对比，并行对比时为各文件耗时之和
+        public long writeNanos;      // 写入压缩包和文件历史
+        public int filesScanned;
+        public int filesChanged;
+        public int filesSkipped;     // 指纹没有变化或内容与上次相同，没有对比的文件
+        public long bytesSkipped;
+        public long bytesRead;
+        public long bytesWritten;
+        private long totalNanos;
+        private final long start = System.nanoTime();
+        private final CycleEvent event = new CycleEvent();
+
+        private Cycle(String kind, int backlog) {
+            this.kind = kind;
+            this.backlog = backlog;
+            event.begin();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+    }
+
+    // 一次查看操作
+    public static class Action {
+        public final String name;
+        private final long start = System.nanoTime();
+        private final ActionEvent event = new ActionEvent();
+
+        private Action(String name, String target) {
+            this.name = name;
+            event.action = name;
+            event.target = target;
+            event.begin();
+        }
+    }
+
+    // 最近 WINDOW_SIZE 个样本的环形缓冲
+    private static class Window {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+
+        synchronized void add(long value) {
+            samples[next] = value;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        synchronized long[] sorted() {
+            long[] values = Arrays.copyOf(samples, count);
+            Arrays.sort(values);
+            return values;
+        }
+    }
+
+    private static final Map<String, Window> windows = new ConcurrentHashMap<>(); // 指标名 -> 最近的耗时（纳秒）
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>(); // 有新样本时的通知
+    private static volatile Cycle lastCycle; // 最近完成的一轮
+
+    public static Cycle beginCycle(String kind, int backlog) {
+        return new Cycle(kind, backlog);
+    }
+
+    // 一轮保存结束：提交 JFR 事件并记录耗时样本
+    public static void endCycle(Cycle cycle) {
+        cycle.totalNanos = System.nanoTime() - cycle.start;
+        CycleEvent event = cycle.event;
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = cycle.kind;
+            event.scanTime = cycle.scanNanos;
+            event.readTime = cycle.readNanos;
+            event.diffTime = cycle.diffNanos;
+            event.writeTime = cycle.writeNanos;
+            event.filesScanned = cycle.filesScanned;
+            event.filesChanged = cycle.filesChanged;
+            event.filesSkipped = cycle.filesSkipped;
+            event.bytesSkipped = cycle.bytesSkipped;
+            event.bytesRead = cycle.bytesRead;
+            event.bytesWritten = cycle.bytesWritten;
+            event.backlog = cycle.backlog;
+            event.commit();
+        }
+        record("cycle." + cycle.kind, cycle.totalNanos);
+        record("stage.scan", cycle.scanNanos);
+        record("stage.read", cycle.readNanos);
+        record("stage.diff", cycle.diffNanos);
+        record("stage.write", cycle.writeNanos);
+        lastCycle = cycle;
+        fireUpdated();
+    }
+
+    public static Action beginAction(String name, String target) {
+        return new Action(name, target);
+    }
+
+    // 一次查看操作结束：提交 JFR 事件并记录耗时样本
+    public static void endAction(Action action) {
+        action.event.commit();
+        record("action." + action.name, System.nanoTime() - action.start);
+        fireUpdated();
+    }
+
+    private static void record(String metric, long nanos) {
+        windows.computeIfAbsent(metric, name -> new Window()).add(nanos);
+    }
+
+    // 指标最近样本的分位数（毫秒），percentiles 取 0 到 100，没有样本时返回 null
+    public static double[] percentiles(String metric, double... percentiles) {
+        Window window = windows.get(metric);
+        long[] values = window == null ? new long[0] : window.sorted();
+        if (values.length == 0) {
+            return null;
+        }
+        double[] result = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = (int) Math.ceil(percentiles[i] / 100 * values.length) - 1; // nearest-rank
+            result[i] = values[Math.max(0, Math.min(values.length - 1, index))] / 1_000_000.0;
+        }
+        return result;
+    }
+
+    // 有样本的指标名，按名字排序
+    public static List<String> metricNames() {
+        List<String> names = new ArrayList<>(windows.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public static Cycle getLastCycle() {
+        return lastCycle;
+    }
+
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static void fireUpdated() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
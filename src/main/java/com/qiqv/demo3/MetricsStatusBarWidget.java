@@ -0,0 +1,83 @@
+package com.qiqv.demo3;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.StatusBarWidget;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+//
+// 状态栏上显示最近保存耗时的分位数，鼠标悬停时显示各阶段、各查看操作的 p50/p90/p99 和上一轮的文件数、字节数。
+// 数据来自 Metrics，每一轮保存、每次查看操作结束后刷新
+//
+public class MetricsStatusBarWidget implements StatusBarWidget, StatusBarWidget.TextPresentation {
+    public static final String ID = "VersionTrackerMetrics";
+
+    private StatusBar statusBar;
+    private final Runnable listener = () -> ApplicationManager.getApplication().invokeLater(() -> {
+        if (statusBar != null) {
+            statusBar.updateWidget(ID);
+        }
+    });
+
+    @Override
+    public @NotNull String ID() {
+        return ID;
+    }
+
+    @Override
+    public WidgetPresentation getPresentation() {
+        return this;
+    }
+
+    @Override
+    public void install(@NotNull StatusBar statusBar) {
+        this.statusBar = statusBar;
+        Metrics.addListener(listener);
+    }
+
+    @Override
+    public void dispose() {
+        Metrics.removeListener(listener);
+        statusBar = null;
+    }
+
+    // 优先显示增量保存的耗时，还没有增量保存时显示保存整个版本的耗时
+    @Override
+    public @NotNull String getText() {
+        double[] diff = Metrics.percentiles("cycle.diff", 50, 95);
+        double[] version = Metrics.percentiles("cycle.version", 50, 95);
+        double[] shown = diff != null ? diff : version;
+        if (shown == null) {
+            return "保存: -";
+        }
+        return String.format("保存 p50 %.0fms p95 %.0fms", shown[0], shown[1]);
+    }
+
+    @Override
+    public float getAlignment() {
+        return Component.CENTER_ALIGNMENT;
+    }
+
+    @Override
+    public String getTooltipText() {
+        StringBuilder text = new StringBuilder("<html><table><tr><th align=left>指标</th><th>p50</th><th>p90</th><th>p99</th></tr>");
+        for (String metric : Metrics.metricNames()) {
+            double[] values = Metrics.percentiles(metric, 50, 90, 99);
+            if (values != null) {
+                text.append(String.format("<tr><td>%s</td><td>%.1fms</td><td>%.1fms</td><td>%.1fms</td></tr>",
+                        metric, values[0], values[1], values[2]));
+            }
+        }
+        text.append("</table>");
+        Metrics.Cycle cycle = Metrics.getLastCycle();
+        if (cycle != null) {
+            text.append("上一轮(").append(cycle.kind).append("): 文件 ").append(cycle.filesScanned)
+                    .append(" 个, 变化 ").append(cycle.filesChanged).append(" 个, 跳过 ").append(cycle.filesSkipped)
+                    .append(" 个 (").append(cycle.bytesSkipped).append(" 字节)<br>读取 ").append(cycle.bytesRead).append(" 字节, 写入 ").append(cycle.bytesWritten)
+                    .append(" 字节, 积压 ").append(cycle.backlog);
+        }
+        return text.append("</html>").toString();
+    }
+}
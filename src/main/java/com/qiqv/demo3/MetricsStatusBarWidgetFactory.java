@@ -0,0 +1,42 @@
+package com.qiqv.demo3;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.StatusBarWidget;
+import com.intellij.openapi.wm.StatusBarWidgetFactory;
+import org.jetbrains.annotations.NotNull;
+
+//
+// 在 plugin.xml 中注册的状态栏组件工厂，每个项目窗口一个 MetricsStatusBarWidget
+//
+public class MetricsStatusBarWidgetFactory implements StatusBarWidgetFactory {
+    @Override
+    public @NotNull String getId() {
+        return MetricsStatusBarWidget.ID;
+    }
+
+    @Override
+    public @NotNull String getDisplayName() {
+        return "Version Tracker Metrics";
+    }
+
+    @Override
+    public boolean isAvailable(@NotNull Project project) {
+        return true;
+    }
+
+    @Override
+    public @NotNull StatusBarWidget createWidget(@NotNull Project project) {
+        return new MetricsStatusBarWidget();
+    }
+
+    @Override
+    public void disposeWidget(@NotNull StatusBarWidget widget) {
+        widget.dispose();
+    }
+
+    @Override
+    public boolean canBeEnabledOn(@NotNull StatusBar statusBar) {
+        return true;
+    }
+}
@@ -1,32 +1,145 @@
 package com.qiqv.demo3;
-import com.intellij.openapi.vfs.VirtualFileEvent;
-import com.intellij.openapi.vfs.VirtualFileListener;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.messages.MessageBusConnection;
 import org.jetbrains.annotations.NotNull;
 
-public class MyFileListener implements VirtualFileListener {
+import java.util.List;
+
+//
+// 这个类是项目文件的变更日志：通过批量 VFS 监听记录内容修改、新建、删除、移动和重命名，
+// VersionManager 每一轮只处理这里记录下来的脏文件和路径。编辑器中的输入通过文档监听通知 CaptureScheduler，
+// 用来判断用户是否还在连续编辑
+//
+public class MyFileListener implements BulkFileListener {
 
     private VersionManager versionManager;
+    private MessageBusConnection connection; // 消息总线连接，取消监听时断开
 
     // 通过构造函数传递 A 类的实例
     public MyFileListener(VersionManager versionManager) {
         this.versionManager = versionManager;
     }
 
-    // 实现文件删除监听逻辑
+    // 一批 VFS 事件处理完成后统一记录
     @Override
-    public void fileDeleted(@NotNull VirtualFileEvent event) {
-        System.out.println("#####文件或目录删除: " + event.getFile().getPath());
-        versionManager.setHasDeleteFile(true);
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            if (isIgnoreRuleFile(event.getPath())) {
+                versionManager.markIgnoreRulesChanged(); // 规则文件本身的新建、修改、删除
+            }
+            if (event instanceof VFileContentChangeEvent) {
+                // 内容修改：只记录为脏文件，下一轮只对比这些文件
+                VirtualFile file = event.getFile();
+                if (file != null && isTracked(event.getPath(), false)) {
+                    versionManager.addDirtyFile(file);
+                }
+            } else if (event instanceof VFileCreateEvent || event instanceof VFileCopyEvent) {
+                if (isTracked(event.getPath(), isDirectory(event))) {
+                    System.out.println("#####文件或目录新建: " + event.getPath());
+                    versionManager.addCreatedPath(event.getPath());
+                }
+            } else if (event instanceof VFileDeleteEvent) {
+                if (isTracked(event.getPath(), isDirectory(event))) {
+                    System.out.println("#####文件或目录删除: " + event.getPath());
+                    versionManager.addDeletedPath(event.getPath());
+                }
+            } else if (event instanceof VFileMoveEvent) {
+                // 移动相当于旧位置删除、新位置新建
+                VFileMoveEvent moveEvent = (VFileMoveEvent) event;
+                recordRelocation(moveEvent.getOldPath(), moveEvent.getNewPath(), isDirectory(event));
+            } else if (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+                // 重命名同样按删除加新建处理
+                VFilePropertyChangeEvent renameEvent = (VFilePropertyChangeEvent) event;
+                recordRelocation(renameEvent.getOldPath(), renameEvent.getNewPath(), isDirectory(event));
+            }
+        }
+    }
+
+    private void recordRelocation(String oldPath, String newPath, boolean directory) {
+        if (isIgnoreRuleFile(oldPath) || isIgnoreRuleFile(newPath)) {
+            versionManager.markIgnoreRulesChanged();
+        }
+        if (isTracked(oldPath, directory)) {
+            System.out.println("#####文件或目录移出: " + oldPath);
+            versionManager.addDeletedPath(oldPath);
+        }
+        if (isTracked(newPath, directory)) {
+            System.out.println("#####文件或目录移入: " + newPath);
+            versionManager.addCreatedPath(newPath);
+        }
+    }
+
+    // 只关心项目根目录下、且没有被忽略规则（snapshot 等插件或系统目录、.gitignore、IDE 的 Excluded 目录）排除的文件
+    private boolean isTracked(String path, boolean directory) {
+        VirtualFile projectRoot = versionManager.getProject().getBaseDir();
+        if (path == null || projectRoot == null) {
+            return false;
+        }
+        String rootPath = projectRoot.getPath();
+        if (!path.startsWith(rootPath + "/")) {
+            return false;
+        }
+        return !versionManager.isIgnored(path.substring(rootPath.length() + 1), directory);
+    }
+
+    // 事件对应的是否是目录（创建事件的文件此时已经存在，删除事件的 VirtualFile 仍保留原来的类型）
+    private static boolean isDirectory(VFileEvent event) {
+        if (event instanceof VFileCreateEvent) {
+            return ((VFileCreateEvent) event).isDirectory();
+        }
+        VirtualFile file = event.getFile();
+        return file != null && file.isDirectory();
+    }
+
+    // 影响忽略规则的文件：各级 .gitignore、插件的 .versionignore 和 .git/info/exclude
+    private static boolean isIgnoreRuleFile(String path) {
+        return path != null && (path.endsWith("/.gitignore") || path.endsWith("/" + IgnoreRules.IGNORE_FILE_NAME)
+                || path.endsWith("/.git/info/exclude"));
     }
 
     // 注册监听器
     public static void registerListener(MyFileListener myFileListener) {
-        VirtualFileManager.getInstance().addVirtualFileListener(myFileListener);
+        myFileListener.connection = myFileListener.versionManager.getProject().getMessageBus().connect();
+        myFileListener.connection.subscribe(VirtualFileManager.VFS_CHANGES, myFileListener);
+        // 编辑器中的输入，监听随连接一起释放
+        EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
+            @Override
+            public void documentChanged(@NotNull DocumentEvent event) {
+                VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+                if (file != null && myFileListener.isTracked(file.getPath(), false)) {
+                    myFileListener.versionManager.noteActivity();
+                }
+            }
+        }, myFileListener.connection);
+        // 模块的 Excluded 目录变化时同样需要重新加载忽略规则
+        myFileListener.connection.subscribe(ModuleRootListener.TOPIC, new ModuleRootListener() {
+            @Override
+            public void rootsChanged(@NotNull ModuleRootEvent event) {
+                myFileListener.versionManager.markIgnoreRulesChanged();
+            }
+        });
     }
 
     // 取消监听器（如果需要的话）
     public static void unregisterListener(MyFileListener myFileListener) {
-        VirtualFileManager.getInstance().removeVirtualFileListener(myFileListener);
+        if (myFileListener.connection != null) {
+            myFileListener.connection.disconnect();
+            myFileListener.connection = null;
+        }
     }
 }
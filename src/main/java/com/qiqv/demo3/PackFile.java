@@ -0,0 +1,281 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//
+// 这个类实现只追加的压缩包文件：所有历史条目压缩后依次追加到 history.pack，
+// history.idx 记录每个条目的 key、偏移和长度，读取时按偏移做一次定位读取。
+// 删除的条目只在索引中留下删除标记，整理时把仍然有效的条目复制到新文件（rewrite）回收空间
+//
+public class PackFile {
+    private static final int RECORD_MAGIC = 0x50414B31; // "PAK1"，每条记录的头部标记
+
+    private final Path packPath;  // 数据文件
+    private final Path indexPath; // 偏移索引文件
+    private final Path commitMarker; // 整理时新文件已经完整写入的标记
+    private final Map<String, long[]> index = new ConcurrentHashMap<>(); // key -> {偏移, 压缩长度, 原始长度}
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock(); // 整理时替换文件，读取时不能同时进行
+    private FileChannel packChannel;
+    private volatile long bytesWritten; // 打开后追加写入的字节数（数据和索引）
+
+    public PackFile(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.packPath = directory.resolve("history.pack");
+        this.indexPath = directory.resolve("history.idx");
+        this.commitMarker = directory.resolve("rewrite.commit");
+        finishRewrite();
+        this.packChannel = FileChannel.open(packPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadIndex();
+    }
+
+    // 上次整理中途退出时：新文件已经完整写入（有标记）则完成替换，否则丢弃写了一半的新文件
+    private void finishRewrite() throws IOException {
+        Path newPack = packPath.resolveSibling("history.pack.new");
+        Path newIndex = indexPath.resolveSibling("history.idx.new");
+        if (Files.exists(commitMarker)) {
+            if (Files.exists(newPack)) {
+                Files.move(newPack, packPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (Files.exists(newIndex)) {
+                Files.move(newIndex, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.delete(commitMarker);
+        } else {
+            Files.deleteIfExists(newPack);
+            Files.deleteIfExists(newIndex);
+        }
+    }
+
+    // 读取索引文件，后写入的同名条目覆盖先写入的，偏移为 -1 表示已删除
+    private void loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts.length != 4) {
+                continue; // 写了一半的索引行直接忽略
+            }
+            long offset = Long.parseLong(parts[1]);
+            if (offset < 0) {
+                index.remove(parts[0]);
+            } else {
+                index.put(parts[0], new long[]{offset, Long.parseLong(parts[2]), Long.parseLong(parts[3])});
+            }
+        }
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    // 当前所有条目的 key
+    public List<String> keys() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    // 追加单个条目
+    public void append(String key, byte[] content) throws IOException {
+        appendAll(Map.of(key, content));
+    }
+
+    // 批量追加条目：一次写入数据文件，一次写入索引文件
+    public synchronized void appendAll(Map<String, byte[]> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long start = packChannel.size(); // 新条目从文件末尾开始
+        long position = start;
+        List<ByteBuffer> buffers = new ArrayList<>();
+        StringBuilder indexLines = new StringBuilder();
+        Map<String, long[]> added = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] compressed = compress(entry.getValue());
+            ByteBuffer header = ByteBuffer.allocate(16 + key.length);
+            header.putInt(RECORD_MAGIC).putInt(key.length).put(key)
+                    .putInt(entry.getValue().length).putInt(compressed.length).flip();
+            long dataOffset = position + header.remaining();
+            buffers.add(header);
+            buffers.add(ByteBuffer.wrap(compressed));
+            added.put(entry.getKey(), new long[]{dataOffset, compressed.length, entry.getValue().length});
+            indexLines.append(entry.getKey()).append('\t').append(dataOffset).append('\t')
+                    .append(compressed.length).append('\t').append(entry.getValue().length).append('\n');
+            position = dataOffset + compressed.length;
+        }
+        // 先写数据并刷到磁盘再写索引，断电后索引里出现的条目也一定已经完整写入
+        long writePosition = start;
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                writePosition += packChannel.write(buffer, writePosition);
+            }
+        }
+        packChannel.force(false);
+        byte[] indexBytes = indexLines.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(indexPath, indexBytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        index.putAll(added);
+        bytesWritten += writePosition - start + indexBytes.length;
+    }
+
+    // 关闭数据文件，之后不能再使用这个实例
+    public synchronized void close() throws IOException {
+        packChannel.close();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // 按 key 定位读取并解压，不存在时返回 null
+    public byte[] read(String key) throws IOException {
+        swapLock.readLock().lock();
+        try {
+            long[] location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            return decompress(readCompressed(key, location), (int) location[2]);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private byte[] readCompressed(String key, long[] location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) location[1]);
+        long position = location[0];
+        while (buffer.hasRemaining()) {
+            int read = packChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("pack 文件不完整: " + key);
+            }
+        }
+        return buffer.array();
+    }
+
+    // 删除条目：只追加一条删除标记，数据由后续整理回收
+    public synchronized void remove(String key) throws IOException {
+        if (index.remove(key) != null) {
+            Files.write(indexPath, (key + "\t-1\t0\t0\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    // 已删除或被覆盖的条目占用的字节数
+    public synchronized long wastedBytes() throws IOException {
+        long liveBytes = 0;
+        for (Map.Entry<String, long[]> entry : index.entrySet()) {
+            liveBytes += 16 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + entry.getValue()[1];
+        }
+        return packChannel.size() - liveBytes;
+    }
+
+    // 把仍然有效的条目按原来的顺序复制到新文件（不需要重新压缩），然后替换原来的数据文件和索引文件。
+    // 新文件完整写入并落盘后才写入替换标记，中途退出时下次打开会丢弃或完成这次整理
+    public synchronized void rewrite() throws IOException {
+        Path newPack = packPath.resolveSibling("history.pack.new");
+        Path newIndex = indexPath.resolveSibling("history.idx.new");
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(index.entrySet());
+        entries.sort((a, b) -> Long.compare(a.getValue()[0], b.getValue()[0]));
+        Map<String, long[]> rewritten = new HashMap<>();
+        StringBuilder indexLines = new StringBuilder();
+        try (FileChannel out = FileChannel.open(newPack, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (Map.Entry<String, long[]> entry : entries) {
+                long[] location = entry.getValue();
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer header = ByteBuffer.allocate(16 + key.length);
+                header.putInt(RECORD_MAGIC).putInt(key.length).put(key)
+                        .putInt((int) location[2]).putInt((int) location[1]).flip();
+                long dataOffset = position + header.remaining();
+                ByteBuffer data = ByteBuffer.wrap(readCompressed(entry.getKey(), location));
+                while (header.hasRemaining()) {
+                    position += out.write(header, position);
+                }
+                while (data.hasRemaining()) {
+                    position += out.write(data, position);
+                }
+                rewritten.put(entry.getKey(), new long[]{dataOffset, location[1], location[2]});
+                indexLines.append(entry.getKey()).append('\t').append(dataOffset).append('\t')
+                        .append(location[1]).append('\t').append(location[2]).append('\n');
+            }
+            out.force(true);
+        }
+        try (FileChannel out = FileChannel.open(newIndex, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(indexLines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.write(commitMarker, new byte[0]);
+        swapLock.writeLock().lock();
+        try {
+            packChannel.close();
+            finishRewrite();
+            packChannel = FileChannel.open(packPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index.clear();
+            index.putAll(rewritten);
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    private static byte[] compress(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, content.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] content = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(content, length, rawLength - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("pack 条目不完整");
+                }
+                length += inflated;
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException("pack 条目损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.qiqv.demo3;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// 这个类是历史查看窗口的 LRU 缓存：保存解析好的 diff、还原出的文件内容和用于显示的差异，
+// 按估算的字节数而不是条目数限制大小，超出上限时淘汰最久没有使用的条目
+//
+public class ReconstructionCache {
+    private static class CachedValue {
+        final Object value;
+        final long bytes;
+
+        CachedValue(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes; // 缓存的字节上限
+    private long currentBytes;   // 当前缓存的字节数
+    private final LinkedHashMap<String, CachedValue> entries = new LinkedHashMap<>(16, 0.75f, true); // 按访问顺序排列
+
+    public ReconstructionCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Object get(String key) {
+        CachedValue cached = entries.get(key);
+        return cached == null ? null : cached.value;
+    }
+
+    public synchronized void put(String key, Object value, long bytes) {
+        if (bytes > maxBytes) {
+            return; // 单个条目超过上限时不缓存
+        }
+        CachedValue previous = entries.put(key, new CachedValue(value, bytes));
+        if (previous != null) {
+            currentBytes -= previous.bytes;
+        }
+        currentBytes += bytes;
+        // 从最久没有使用的条目开始淘汰
+        Iterator<Map.Entry<String, CachedValue>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            currentBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    // 删除 key 以 prefix 开头的条目，例如整理历史删除了对应的 diff 之后
+    public synchronized void removeByPrefix(String prefix) {
+        Iterator<Map.Entry<String, CachedValue>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedValue> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                currentBytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    // 估算字符串占用的字节数（对象头加上字符数组）
+    public static long sizeOf(String text) {
+        return text == null ? 0 : 40 + 2L * text.length();
+    }
+
+    // 估算字符串列表占用的字节数
+    public static long sizeOf(List<String> lines) {
+        if (lines == null) {
+            return 0;
+        }
+        long bytes = 16 + 8L * lines.size();
+        for (String line : lines) {
+            bytes += sizeOf(line);
+        }
+        return bytes;
+    }
+}
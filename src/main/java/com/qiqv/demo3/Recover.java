@@ -1,24 +1,205 @@
-package com.qiqv.demo3;
-
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.List;
-//
-//    这个类实现文件历史版本恢复
-//
-
-public class Recover {
-    public static void writeFile(List<String> content, String filePath) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            for (String line : content) {
-                writer.write(line);
-                writer.write("\n");  // 使用 LF 换行符
-            }
-            System.out.println("文件已覆盖写入 (LF 格式): " + filePath);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-}
+package com.qiqv.demo3;
+
+import com.intellij.openapi.vfs.LocalFileSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+//
+//    这个类实现文件历史版本恢复。
+//    所有写入都先写到同一目录下的临时文件，再原子地重命名为目标文件，中途崩溃不会留下写了一半的文件
+//
+
+public class Recover {
+    // 恢复整个版本的结果
+    public static class RestoreResult {
+        public final List<Path> restoredFiles = new ArrayList<>(); // 内容有变化、已经写入的文件
+        public int unchangedFiles;  // 内容与当前文件相同、没有写入的文件数
+        public int missingFiles;    // 当时已删除或无法还原的文件数
+    }
+
+    private enum Outcome { WRITTEN, UNCHANGED, MISSING }
+
+    public static void writeFile(List<String> content, String filePath) {
+        StringBuilder text = new StringBuilder();
+        for (String line : content) {
+            text.append(line).append("\n"); // 使用 LF 换行符
+        }
+        try {
+            writeAtomically(Paths.get(filePath), text.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("文件已覆盖写入 (LF 格式): " + filePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 恢复整个版本：entryKey 为 version/Version_<时间戳>（恢复这个版本保存时的状态）
+    // 或 diff/diff_<时间戳>（恢复这一轮保存时的状态，即它的 base 版本加上此后的修改）。
+    // 文件并行还原和写入，全部完成后只刷新一次 VFS。当时已删除的文件不会从项目中删除
+    public static RestoreResult restoreVersion(Path snapshotRoot, String entryKey) throws IOException {
+        SnapshotStore store = SnapshotStore.forRoot(snapshotRoot);
+        Path projectRoot = snapshotRoot.getParent();
+        String name = entryKey.substring(entryKey.indexOf('/') + 1);
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        String timeStamp = name.substring(name.indexOf('_') + 1);
+        long captureTime = SnapshotStore.parseTimeStamp(timeStamp);
+        if (captureTime < 0) {
+            throw new IOException("无法识别的版本: " + entryKey);
+        }
+        // 时间戳只精确到秒，同一秒内的记录都属于这个版本
+        long timestamp = captureTime + 999;
+        String versionName = null;
+        for (String version : store.listVersions()) {
+            if (version.compareTo("Version_" + timeStamp) <= 0) {
+                versionName = version;
+            }
+        }
+        VersionIndex index = versionName == null ? null : store.readManifest(versionName);
+        if (index == null) {
+            throw new IOException("找不到 " + entryKey + " 对应的版本清单");
+        }
+
+        VersionHistory history = store.getHistory();
+        Set<String> relativePaths = new LinkedHashSet<>(index.paths());
+        relativePaths.addAll(history.paths());
+        // 旧版本生成的 diff 没有文件历史，按 diff 文件还原
+        Map<String, String> legacyDiffs = new LinkedHashMap<>();
+        if (entryKey.startsWith("diff/")) {
+            List<String> diffFilePaths = new ArrayList<>();
+            for (String key : store.listKeys("diff/" + name + "/")) {
+                diffFilePaths.add(snapshotRoot + "/" + key);
+            }
+            Path diffDirectory = snapshotRoot.resolve("diff").resolve(name);
+            if (Files.isDirectory(diffDirectory)) {
+                try (Stream<Path> files = Files.list(diffDirectory)) {
+                    files.forEach(file -> diffFilePaths.add(file.toString())); // 旧版本留下的单独 diff 文件
+                }
+            }
+            for (String diffFilePath : diffFilePaths) {
+                ShowDiff.Diff diff = ShowDiff.parseDiffFile(diffFilePath);
+                if (diff.targetFilePath != null && diff.targetFilePath.startsWith(projectRoot + "/")) {
+                    String relativePath = diff.targetFilePath.substring(projectRoot.toString().length() + 1);
+                    if (history.timestamps(relativePath).isEmpty()) {
+                        legacyDiffs.put(relativePath, diffFilePath);
+                    }
+                }
+            }
+        }
+
+        List<String> paths = new ArrayList<>(relativePaths);
+        List<CompletableFuture<Outcome>> futures = new ArrayList<>();
+        for (String relativePath : paths) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    byte[] content = readContent(store, history, index, legacyDiffs, relativePath, timestamp);
+                    if (content == null) {
+                        return Outcome.MISSING;
+                    }
+                    Path target = projectRoot.resolve(relativePath);
+                    if (Files.isRegularFile(target) && Files.size(target) == content.length
+                            && Arrays.equals(Files.readAllBytes(target), content)) {
+                        return Outcome.UNCHANGED; // 内容没变，不需要写入
+                    }
+                    writeAtomically(target, content);
+                    return Outcome.WRITTEN;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, CapturePipeline.getPool()));
+        }
+
+        RestoreResult result = new RestoreResult();
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                Outcome outcome = futures.get(i).join();
+                if (outcome == Outcome.WRITTEN) {
+                    result.restoredFiles.add(projectRoot.resolve(paths.get(i)));
+                } else if (outcome == Outcome.UNCHANGED) {
+                    result.unchangedFiles++;
+                } else {
+                    result.missingFiles++;
+                }
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            // 所有文件写完后只刷新一次，出错时也刷新已经写入的文件
+            if (!result.restoredFiles.isEmpty()) {
+                LocalFileSystem.getInstance().refreshNioFiles(result.restoredFiles, true, false, null);
+            }
+        }
+        System.out.println("已恢复版本 " + entryKey + ": 写入 " + result.restoredFiles.size() + " 个文件, "
+                + result.unchangedFiles + " 个文件未变化, " + result.missingFiles + " 个文件当时不存在");
+        return result;
+    }
+
+    // 还原文件在 timestamp 时刻的内容：优先使用文件历史，没有历史的文件使用旧版本的 diff 或版本清单中的内容
+    private static byte[] readContent(SnapshotStore store, VersionHistory history, VersionIndex index,
+                                      Map<String, String> legacyDiffs, String relativePath, long timestamp) throws IOException {
+        if (!history.timestamps(relativePath).isEmpty()) {
+            return history.reconstruct(relativePath, timestamp);
+        }
+        String diffFilePath = legacyDiffs.get(relativePath);
+        if (diffFilePath != null) {
+            String content = ShowDiff.readDiffTarget(diffFilePath, ShowDiff.parseDiffFile(diffFilePath));
+            return content == null ? null : content.getBytes(StandardCharsets.UTF_8);
+        }
+        VersionIndex.Entry entry = index.get(relativePath);
+        return entry == null ? null : store.readBlob(entry.hash);
+    }
+
+    // 先通过 FileChannel 写入同一目录下的临时文件并落盘，再原子重命名为目标文件
+    public static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = directory.resolve("." + target.getFileName() + "." + UUID.randomUUID() + ".restore");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            if (Files.exists(target)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target)); // 保留原文件的权限
+                } catch (UnsupportedOperationException ignored) {
+                    // 非 POSIX 文件系统
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//
+// 这个类是历史的保留策略：按时间由近到远分成若干档，每一档内每隔 interval 只保留最后一个时刻。
+// 策略写成一行，例如默认的 "1h:all,1d:1h,*:1d" 表示
+//   一小时内的全部保留，一天内的每小时保留一个，更早的每天保留一个；
+// 间隔写 drop 表示超过这个年龄的全部删除，例如 "1h:all,1d:1h,30d:1d,*:drop"。
+// 可以写在 snapshot/pack/retention.conf 中（# 开头的行是注释），没有配置时使用默认策略
+//
+public class RetentionPolicy {
+    public static final String DEFAULT_SPEC = "1h:all,1d:1h,*:1d";
+    private static final long KEEP_ALL = 0;  // 这一档全部保留
+    private static final long DROP = -1;     // 这一档全部删除
+
+    private final List<long[]> tiers = new ArrayList<>(); // {最大年龄, 间隔}，按年龄从小到大，最后一档的年龄为 Long.MAX_VALUE
+
+    private RetentionPolicy() {
+    }
+
+    public static RetentionPolicy defaultPolicy() {
+        return parse(DEFAULT_SPEC);
+    }
+
+    // 读取 snapshot/pack/retention.conf，文件不存在或格式不对时使用默认策略
+    public static RetentionPolicy load(Path snapshotRoot) {
+        Path config = snapshotRoot.resolve("pack").resolve("retention.conf");
+        if (Files.exists(config)) {
+            try {
+                for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        return parse(line);
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                System.out.println("保留策略格式不正确，使用默认策略: " + DEFAULT_SPEC);
+            }
+        }
+        return defaultPolicy();
+    }
+
+    // 解析 "年龄:间隔,年龄:间隔,..."，年龄和间隔的单位为 s、m、h、d，最后一档的年龄写 *
+    public static RetentionPolicy parse(String spec) {
+        RetentionPolicy policy = new RetentionPolicy();
+        for (String tier : spec.split(",")) {
+            String[] parts = tier.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("无法识别的保留策略: " + tier);
+            }
+            long maxAge = parts[0].trim().equals("*") ? Long.MAX_VALUE : parseDuration(parts[0]);
+            String interval = parts[1].trim();
+            policy.tiers.add(new long[]{maxAge, interval.equals("all") ? KEEP_ALL
+                    : interval.equals("drop") ? DROP : parseDuration(interval)});
+        }
+        policy.tiers.sort((a, b) -> Long.compare(a[0], b[0]));
+        if (policy.tiers.isEmpty() || policy.tiers.get(policy.tiers.size() - 1)[0] != Long.MAX_VALUE) {
+            policy.tiers.add(new long[]{Long.MAX_VALUE, KEEP_ALL}); // 没有写最后一档时更早的全部保留
+        }
+        return policy;
+    }
+
+    private static long parseDuration(String text) {
+        text = text.trim();
+        long value = Long.parseLong(text.substring(0, text.length() - 1));
+        switch (text.charAt(text.length() - 1)) {
+            case 's':
+                return value * 1000L;
+            case 'm':
+                return value * 60_000L;
+            case 'h':
+                return value * 3_600_000L;
+            case 'd':
+                return value * 86_400_000L;
+            default:
+                throw new IllegalArgumentException("无法识别的时长: " + text);
+        }
+    }
+
+    // 从一组时刻中选出要保留的时刻，最新的时刻总是保留
+    public Set<Long> select(List<Long> timestamps, long now) {
+        Set<Long> kept = new HashSet<>();
+        Map<String, Long> latestInBucket = new HashMap<>(); // "档位:桶号" -> 桶内最后的时刻
+        long newest = Long.MIN_VALUE;
+        for (long timestamp : timestamps) {
+            newest = Math.max(newest, timestamp);
+            long age = Math.max(0, now - timestamp);
+            int tierIndex = 0;
+            while (age >= tiers.get(tierIndex)[0]) {
+                tierIndex++;
+            }
+            long interval = tiers.get(tierIndex)[1];
+            if (interval == KEEP_ALL) {
+                kept.add(timestamp);
+            } else if (interval != DROP) {
+                latestInBucket.merge(tierIndex + ":" + Math.floorDiv(timestamp, interval), timestamp, Math::max);
+            }
+        }
+        kept.addAll(latestInBucket.values());
+        if (!timestamps.isEmpty()) {
+            kept.add(newest);
+        }
+        return kept;
+    }
+}
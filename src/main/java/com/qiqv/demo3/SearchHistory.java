@@ -0,0 +1,134 @@
+package com.qiqv.demo3;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.EditorFontType;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+//
+// 这个类在整个保存历史中搜索一段文字：列出它在哪个时刻、哪个文件的哪一行出现（+）或消失（-），
+// 双击一条结果显示文件在那个时刻的内容并定位到这一行
+//
+public class SearchHistory extends AnAction {
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null || project.getBasePath() == null) {
+            return;
+        }
+        Path snapshotRoot = Paths.get(project.getBasePath(), "snapshot");
+        if (!Files.isDirectory(snapshotRoot)) {
+            JOptionPane.showMessageDialog(null, "还没有保存任何版本");
+            return;
+        }
+        String query = JOptionPane.showInputDialog(null, "在保存历史中搜索:", "搜索历史", JOptionPane.PLAIN_MESSAGE);
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        SnapshotStore store = SnapshotStore.forRoot(snapshotRoot);
+        Metrics.Action action = Metrics.beginAction("search", query);
+        new SwingWorker<List<SearchIndex.Hit>, Void>() {
+            @Override
+            protected List<SearchIndex.Hit> doInBackground() throws IOException {
+                return store.getSearchIndex().search(query);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    showResults(store, query, get());
+                    Metrics.endAction(action);
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private static void showResults(SnapshotStore store, String query, List<SearchIndex.Hit> hits) {
+        JFrame frame = new JFrame("搜索 \"" + query + "\": " + hits.size() + " 条结果"
+                + (hits.size() >= SearchIndex.MAX_HITS ? "（只显示前 " + SearchIndex.MAX_HITS + " 条）" : ""));
+        frame.setSize(1200, 600);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.setLayout(new GridLayout(2, 1));
+
+        DefaultTableModel model = new DefaultTableModel(new Object[]{"时间", "变化", "文件", "行", "内容"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (SearchIndex.Hit hit : hits) {
+            model.addRow(new Object[]{format.format(new Date(hit.timestamp)), hit.added ? "+" : "-",
+                    hit.relativePath, hit.line, hit.text.trim()});
+        }
+        JTable table = new JTable(model);
+        frame.add(new JScrollPane(table));
+
+        JTextArea textArea = new JTextArea();
+        textArea.setEditable(false);
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        textArea.setFont(scheme.getFont(EditorFontType.PLAIN));
+        textArea.setForeground(scheme.getDefaultForeground());
+        textArea.setBackground(scheme.getDefaultBackground());
+        frame.add(new JScrollPane(textArea));
+
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = table.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0) {
+                    showState(store, hits.get(row), textArea);
+                }
+            }
+        });
+        frame.setVisible(true);
+    }
+
+    // 出现的行显示这一时刻的内容，消失的行显示前一个状态的内容
+    private static void showState(SnapshotStore store, SearchIndex.Hit hit, JTextArea textArea) {
+        new SwingWorker<byte[], Void>() {
+            @Override
+            protected byte[] doInBackground() throws IOException {
+                long timestamp = hit.added ? hit.timestamp : hit.timestamp - 1;
+                return store.getHistory().reconstruct(hit.relativePath, timestamp);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    byte[] content = get();
+                    textArea.setText(content == null ? "" : new String(content, StandardCharsets.UTF_8));
+                    if (hit.line - 1 < textArea.getLineCount()) {
+                        int start = textArea.getLineStartOffset(hit.line - 1);
+                        textArea.setCaretPosition(start);
+                        textArea.select(start, textArea.getLineEndOffset(hit.line - 1));
+                        textArea.requestFocusInWindow();
+                    }
+                } catch (InterruptedException | ExecutionException | BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+}
@@ -0,0 +1,465 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.patch.AbstractDelta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//
+// 这个类是整个历史的全文索引：记录每个文件每次保存时新增和删除的行，可以查询一段文字在什么时候、哪个文件的哪一行出现或消失。
+// 文件历史（VersionHistory）每提交一轮，就在后台线程中把这一轮的变化追加到 snapshot/index/search.dat：
+//   每一行是一条 (类型 + 或 -, 保存时刻, 相对路径, 行号, 内容)，每个文件每个时刻的若干行之后跟一条提交标记 C，
+//   只有带提交标记的行才有效，写了一半的尾部在下次打开时截掉，缺少的部分按文件历史补上；
+//   整理历史之后，去掉被删除的状态和前一个状态变了的状态的记录，再重新索引这些状态。
+// 内存中只保存每条记录在文件中的位置，以及按三个字符（trigram）组织的倒排表；
+// 查询时先用查询串的所有 trigram 求交集，再读取候选记录核对内容，不需要扫描 snapshot 文件夹
+//
+public class SearchIndex {
+    public static final int MAX_HITS = 1000;        // 一次查询最多返回的结果数
+    private static final int MAX_LINE_CHARS = 1000; // 每行最多索引的字符数
+    private static final byte ADDED = '+';
+    private static final byte REMOVED = '-';
+    private static final byte COMMIT = 'C';
+
+    // 一条查询结果
+    public static class Hit {
+        public final String relativePath;
+        public final long timestamp; // 保存时刻（毫秒），对应文件历史中的一个状态
+        public final int line;       // 新增的行为新内容中的行号，删除的行为旧内容中的行号，从 1 开始
+        public final boolean added;  // true 表示这一行在这个时刻出现，false 表示消失
+        public final String text;
+
+        public Hit(String relativePath, long timestamp, int line, boolean added, String text) {
+            this.relativePath = relativePath;
+            this.timestamp = timestamp;
+            this.line = line;
+            this.added = added;
+            this.text = text;
+        }
+    }
+
+    // 按 id 递增追加的倒排表
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return; // 同一行中重复的 trigram
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    private final SnapshotStore snapshotStore;
+    private final Path dataPath;
+    private final Map<Long, Postings> postings = new HashMap<>(); // trigram -> 包含它的记录 id
+    private long[] offsets = new long[1024];                       // 记录 id -> 在 search.dat 中的位置
+    private int entryCount;
+    private final Map<String, Long> indexedUpTo = new ConcurrentHashMap<>(); // 相对路径 -> 已经索引到的保存时刻
+    private final Set<String> pendingPaths = Collections.newSetFromMap(new ConcurrentHashMap<>()); // 等待索引的文件
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VersionTracker-SearchIndex");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public SearchIndex(SnapshotStore snapshotStore, Path dataPath) throws IOException {
+        this.snapshotStore = snapshotStore;
+        this.dataPath = dataPath;
+        load();
+    }
+
+    // 读取索引文件，建立倒排表；没有提交标记的尾部截掉
+    private void load() throws IOException {
+        if (!Files.exists(dataPath)) {
+            return;
+        }
+        long committed = 0;
+        List<Long> uncommitted = new ArrayList<>(); // 还没有遇到提交标记的记录的位置和内容
+        List<String> uncommittedTexts = new ArrayList<>();
+        try (CountingInput in = new CountingInput(dataPath)) {
+            while (true) {
+                long offset = in.position();
+                byte kind;
+                try {
+                    kind = in.data.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    long timestamp = in.data.readLong();
+                    String relativePath = in.data.readUTF();
+                    if (kind == COMMIT) {
+                        for (int i = 0; i < uncommitted.size(); i++) {
+                            addEntry(uncommitted.get(i), uncommittedTexts.get(i));
+                        }
+                        uncommitted.clear();
+                        uncommittedTexts.clear();
+                        indexedUpTo.merge(relativePath, timestamp, Math::max);
+                        committed = in.position();
+                        continue;
+                    }
+                    in.data.readInt();
+                    String text = in.data.readUTF();
+                    uncommitted.add(offset);
+                    uncommittedTexts.add(text);
+                } catch (EOFException e) {
+                    break; // 写了一半的记录
+                }
+            }
+        }
+        if (committed < Files.size(dataPath)) {
+            try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.WRITE)) {
+                channel.truncate(committed);
+            }
+        }
+    }
+
+    // 文件历史提交了新的记录，在后台索引这些文件
+    public void enqueue(Collection<String> relativePaths) {
+        pendingPaths.addAll(relativePaths);
+        executor.execute(this::catchUp);
+    }
+
+    // 整理历史删除了一些状态：每个文件从最早被删除的时刻起，保留下来的状态与前一个状态的变化都不同了。
+    // 重写索引文件去掉这些时刻的记录，再按整理后的文件历史重新索引
+    public void compacted(Map<String, Long> firstDropped) {
+        try {
+            prune(firstDropped);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("无法整理全文索引");
+            return;
+        }
+        enqueue(firstDropped.keySet());
+    }
+
+    // 先写临时文件再原子替换，然后重新读取索引文件
+    private synchronized void prune(Map<String, Long> firstDropped) throws IOException {
+        if (!Files.exists(dataPath)) {
+            return;
+        }
+        Path temp = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+        try (CountingInput in = new CountingInput(dataPath);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.data.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    long timestamp = in.data.readLong();
+                    String relativePath = in.data.readUTF();
+                    int line = kind == COMMIT ? 0 : in.data.readInt();
+                    String text = kind == COMMIT ? null : in.data.readUTF();
+                    Long dropped = firstDropped.get(relativePath);
+                    if (dropped != null && timestamp >= dropped) {
+                        continue;
+                    }
+                    out.writeByte(kind);
+                    out.writeLong(timestamp);
+                    out.writeUTF(relativePath);
+                    if (kind != COMMIT) {
+                        out.writeInt(line);
+                        out.writeUTF(text);
+                    }
+                } catch (EOFException e) {
+                    break; // 写了一半的记录
+                }
+            }
+        }
+        Files.move(temp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        postings.clear();
+        offsets = new long[1024];
+        entryCount = 0;
+        indexedUpTo.clear(); // 按剩下的提交标记重新计算
+        load();
+    }
+
+    // 索引所有文件历史中还没有索引的记录（第一次打开或索引落后时）
+    public void enqueueAll() throws IOException {
+        enqueue(snapshotStore.getHistory().paths());
+    }
+
+    private void catchUp() {
+        if (pendingPaths.isEmpty()) {
+            return;
+        }
+        if (!snapshotStore.tryBeginCapture()) {
+            executor.execute(this::retryLater); // 正在整理历史，稍后再索引
+            return;
+        }
+        try {
+            VersionHistory history = snapshotStore.getHistory();
+            for (String relativePath : new ArrayList<>(pendingPaths)) {
+                pendingPaths.remove(relativePath);
+                indexPath(history, relativePath);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("无法更新全文索引");
+        } finally {
+            snapshotStore.endCapture();
+        }
+    }
+
+    // 等待已经排队的索引任务完成（测试用）
+    void awaitIdle() throws InterruptedException, ExecutionException {
+        executor.submit(() -> { }).get();
+    }
+
+    private void retryLater() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        catchUp();
+    }
+
+    // 按时间顺序索引一个文件还没有索引的状态：与前一个状态对比，记录新增和删除的行
+    private void indexPath(VersionHistory history, String relativePath) throws IOException {
+        long last = indexedUpTo.getOrDefault(relativePath, Long.MIN_VALUE);
+        List<Long> timestamps = history.timestamps(relativePath);
+        List<String> previous = null;
+        boolean previousLoaded = false;
+        for (int i = 0; i < timestamps.size(); i++) {
+            long timestamp = timestamps.get(i);
+            if (timestamp <= last) {
+                continue;
+            }
+            if (!previousLoaded) {
+                previous = i > 0 ? linesOf(history.reconstruct(relativePath, timestamps.get(i - 1))) : null;
+                previousLoaded = true;
+            }
+            List<String> current = linesOf(history.reconstruct(relativePath, timestamp));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            List<String> texts = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                if (previous == null && current != null) {
+                    for (int line = 0; line < current.size(); line++) {
+                        writeEntry(out, ADDED, timestamp, relativePath, line + 1, current.get(line), texts, positions);
+                    }
+                } else if (previous != null && current == null) {
+                    for (int line = 0; line < previous.size(); line++) {
+                        writeEntry(out, REMOVED, timestamp, relativePath, line + 1, previous.get(line), texts, positions);
+                    }
+                } else if (previous != null) {
+                    for (AbstractDelta<String> delta : HistogramDiff.diff(previous, current).getDeltas()) {
+                        List<String> removed = delta.getSource().getLines();
+                        for (int j = 0; j < removed.size(); j++) {
+                            writeEntry(out, REMOVED, timestamp, relativePath, delta.getSource().getPosition() + j + 1, removed.get(j), texts, positions);
+                        }
+                        List<String> added = delta.getTarget().getLines();
+                        for (int j = 0; j < added.size(); j++) {
+                            writeEntry(out, ADDED, timestamp, relativePath, delta.getTarget().getPosition() + j + 1, added.get(j), texts, positions);
+                        }
+                    }
+                }
+                out.writeByte(COMMIT);
+                out.writeLong(timestamp);
+                out.writeUTF(relativePath);
+            }
+            append(bytes.toByteArray(), texts, positions);
+            indexedUpTo.put(relativePath, timestamp);
+            previous = current;
+        }
+    }
+
+    // 二进制内容和大文件不按行索引
+    private static List<String> linesOf(byte[] content) throws IOException {
+        if (content == null) {
+            return null;
+        }
+        if (content.length > SnapshotStore.CHUNK_THRESHOLD || SnapshotStore.isBinary(content)) {
+            return Collections.emptyList();
+        }
+        return SnapshotStore.toLines(content);
+    }
+
+    private static void writeEntry(DataOutputStream out, byte kind, long timestamp, String relativePath, int line,
+                                   String text, List<String> texts, List<Integer> positions) throws IOException {
+        if (text.trim().isEmpty()) {
+            return; // 空行不需要查询
+        }
+        if (text.length() > MAX_LINE_CHARS) {
+            text = text.substring(0, MAX_LINE_CHARS);
+        }
+        positions.add(out.size());
+        texts.add(text);
+        out.writeByte(kind);
+        out.writeLong(timestamp);
+        out.writeUTF(relativePath);
+        out.writeInt(line);
+        out.writeUTF(text);
+    }
+
+    // 追加一个文件一个时刻的所有记录和提交标记，写入之后再加入倒排表
+    private synchronized void append(byte[] bytes, List<String> texts, List<Integer> positions) throws IOException {
+        Files.createDirectories(dataPath.getParent());
+        long base = Files.exists(dataPath) ? Files.size(dataPath) : 0;
+        Files.write(dataPath, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        for (int i = 0; i < texts.size(); i++) {
+            addEntry(base + positions.get(i), texts.get(i));
+        }
+    }
+
+    private void addEntry(long offset, String text) {
+        if (entryCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, entryCount * 2);
+        }
+        int id = entryCount++;
+        offsets[id] = offset;
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            postings.computeIfAbsent(trigram(lower, i), key -> new Postings()).add(id);
+        }
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    // 查询包含 query 的行（不区分大小写），按时间排序，最多返回 MAX_HITS 条
+    public synchronized List<Hit> search(String query) throws IOException {
+        String lower = query.toLowerCase(Locale.ROOT);
+        List<Hit> hits = new ArrayList<>();
+        if (lower.isEmpty() || entryCount == 0) {
+            return hits;
+        }
+        int[] candidates;
+        int candidateCount;
+        if (lower.length() < 3) {
+            // 太短的查询没有 trigram，逐条核对所有记录（只读取索引文件）
+            candidates = new int[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                candidates[i] = i;
+            }
+            candidateCount = entryCount;
+        } else {
+            Set<Long> keys = new LinkedHashSet<>();
+            for (int i = 0; i + 3 <= lower.length(); i++) {
+                keys.add(trigram(lower, i));
+            }
+            List<Postings> lists = new ArrayList<>();
+            for (Long key : keys) {
+                Postings list = postings.get(key);
+                if (list == null) {
+                    return hits;
+                }
+                lists.add(list);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size, b.size)); // 从最短的倒排表开始求交集
+            candidates = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+            candidateCount = candidates.length;
+            for (int i = 1; i < lists.size() && candidateCount > 0; i++) {
+                candidateCount = intersect(candidates, candidateCount, lists.get(i));
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(dataPath.toFile(), "r")) {
+            for (int i = 0; i < candidateCount && hits.size() < MAX_HITS; i++) {
+                file.seek(offsets[candidates[i]]);
+                byte kind = file.readByte();
+                long timestamp = file.readLong();
+                String relativePath = file.readUTF();
+                int line = file.readInt();
+                String text = file.readUTF();
+                if (text.toLowerCase(Locale.ROOT).contains(lower)) {
+                    hits.add(new Hit(relativePath, timestamp, line, kind == ADDED, text));
+                }
+            }
+        }
+        hits.sort((a, b) -> Long.compare(a.timestamp, b.timestamp));
+        return hits;
+    }
+
+    // 两个递增序列求交集，结果写回 candidates，返回结果个数
+    private static int intersect(int[] candidates, int count, Postings list) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            int id = candidates[i];
+            while (j < list.size && list.ids[j] < id) {
+                j++;
+            }
+            if (j < list.size && list.ids[j] == id) {
+                candidates[kept++] = id;
+            }
+        }
+        return kept;
+    }
+
+    // 读取时记录当前位置的输入流
+    private static class CountingInput implements AutoCloseable {
+        private final InputStream raw;
+        private final DataInputStream data;
+        private long position;
+
+        CountingInput(Path path) throws IOException {
+            raw = new BufferedInputStream(Files.newInputStream(path)) {
+                @Override
+                public synchronized int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        position++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        position += n;
+                    }
+                    return n;
+                }
+            };
+            data = new DataInputStream(raw);
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -1,96 +1,269 @@
-package com.qiqv.demo3;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.charset.StandardCharsets;
-//
-//这个类用于解析生成的diff文件
-
-public class ShowDiff {
-    public static class Diff {
-        public String originalFilePath; // --- 后面的文件路径
-        public String targetFilePath;   // +++ 后面的文件路径
-        public List<String> diffLines;  // 存储差异的行
-
-        public Diff() {
-            diffLines = new ArrayList<>();
-        }
-    }
-
-    // 解析 .diff 文件
-    public static Diff parseDiffFile(String diffFilePath) {
-        Diff diff = new Diff();
-        try (BufferedReader reader = new BufferedReader(new FileReader(diffFilePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("---")) {
-                    diff.originalFilePath = line.substring(4).trim(); // 提取初始文件路径
-                } else if (line.startsWith("+++")) {
-                    diff.targetFilePath = line.substring(4).trim(); // 提取目标文件路径
-                } else if (line.startsWith("-") || line.startsWith("+") || line.startsWith("@@")) {
-                    // 将差异的行保存下来
-                    diff.diffLines.add(line);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return diff;
-    }
-
-    public static String readFileContent(String filePath) {
-        File file = new File(filePath);
-        try {
-            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    public static String applyDiff(String originalContent, List<String> diffLines) {
-        String[] lines = originalContent.split("\n");
-        StringBuilder newContent = new StringBuilder();
-
-        int lineIndex = 0;
-        int array=0;
-        for (String diffLine : diffLines) {
-            if (diffLine.startsWith("@@")) {
-                // 解析 @@ 行，找到要修改的行号
-                // 示例: @@ -13,6 +13,3 @@
-                String[] parts = diffLine.split(" ");
-                String originalInfo = parts[1]; // 获取原始文件的行信息
-                String[] originalRange = originalInfo.substring(1).split(",");
-                lineIndex = Integer.parseInt(originalRange[0]) - 1; // 获取修改的起始行号（数组从0开始）
-                while(lineIndex >= array) {
-                    newContent.append(lines[array]).append("\n");
-                    array++;
-                }
-            } else if (diffLine.startsWith("-")) {
-                // 删除行，跳过此行
-
-                lineIndex++;
-            } else if (diffLine.startsWith("+")) {
-                // 添加行
-                newContent.append(diffLine.substring(1)).append("\n");
-            }
-        }
-
-        // 处理剩余的原始文件内容
-        lineIndex++;
-        while (lineIndex < lines.length) {
-            newContent.append(lines[lineIndex]).append("\n");
-            lineIndex++;
-        }
-
-        return newContent.toString();
-    }
-
-    
-
-
-}
+package com.qiqv.demo3;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+//
+//这个类用于解析生成的diff文件。
+//除了按行保存差异的 Diff 之外，还提供按 hunk 解析的类型化模型（Hunk），
+//以及在通道上逐个读取 hunk、逐行应用到原始文件的流式接口，大文件和大 diff 不需要整体读入内存
+
+public class ShowDiff {
+    public static class Diff {
+        public String originalFilePath; // --- 后面的文件路径
+        public String targetFilePath;   // +++ 后面的文件路径
+        public List<String> diffLines;  // 存储差异的行
+
+        public Diff() {
+            diffLines = new ArrayList<>();
+        }
+    }
+
+    // hunk 中一行的操作
+    public enum Op { CONTEXT, DELETE, INSERT }
+
+    public static class Line {
+        public final Op op;
+        public final String text; // 去掉操作符之后的行内容
+
+        public Line(Op op, String text) {
+            this.op = op;
+            this.text = text;
+        }
+    }
+
+    // 一个 hunk：@@ -oldStart,oldCount +newStart,newCount @@ 以及其中的每一行
+    public static class Hunk {
+        public final int oldStart;  // 原始文件中的起始行号（从 1 开始）
+        public final int oldCount;  // 原始文件中涉及的行数
+        public final int newStart;  // 目标文件中的起始行号（从 1 开始）
+        public final int newCount;  // 目标文件中涉及的行数
+        public final List<Line> lines = new ArrayList<>();
+
+        public Hunk(int oldStart, int oldCount, int newStart, int newCount) {
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+            this.newStart = newStart;
+            this.newCount = newCount;
+        }
+
+        // 解析 @@ -13,6 +13,3 @@ 形式的 hunk 头
+        public static Hunk parseHeader(String header) {
+            int oldIndex = header.indexOf('-') + 1;
+            int newIndex = header.indexOf('+', oldIndex) + 1;
+            int[] oldRange = parseRange(header, oldIndex);
+            int[] newRange = parseRange(header, newIndex);
+            return new Hunk(oldRange[0], oldRange[1], newRange[0], newRange[1]);
+        }
+
+        // 从 index 处读取 起始行号[,行数]，省略行数时行数为 1
+        private static int[] parseRange(String text, int index) {
+            int[] range = {0, 1};
+            int i = index;
+            while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                range[0] = range[0] * 10 + (text.charAt(i++) - '0');
+            }
+            if (i < text.length() && text.charAt(i) == ',') {
+                range[1] = 0;
+                i++;
+                while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                    range[1] = range[1] * 10 + (text.charAt(i++) - '0');
+                }
+            }
+            return range;
+        }
+    }
+
+    // 在通道上逐个读取 hunk 的解析器，构造时读取 ---、+++ 文件头，之后每次 next() 只保存一个 hunk
+    public static class HunkReader implements Closeable {
+        private final BufferedReader reader;
+        private String pendingHeader; // 已经读到的下一个 @@ 行
+        public String originalFilePath; // --- 后面的文件路径
+        public String targetFilePath;   // +++ 后面的文件路径
+
+        public HunkReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("@@")) {
+                    pendingHeader = line;
+                    break;
+                } else if (line.startsWith("---")) {
+                    originalFilePath = line.substring(4).trim();
+                } else if (line.startsWith("+++")) {
+                    targetFilePath = line.substring(4).trim();
+                }
+            }
+        }
+
+        // 读取下一个 hunk，没有更多 hunk 时返回 null
+        public Hunk next() throws IOException {
+            if (pendingHeader == null) {
+                return null;
+            }
+            Hunk hunk = Hunk.parseHeader(pendingHeader);
+            pendingHeader = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("@@")) {
+                    pendingHeader = line;
+                    break;
+                } else if (line.startsWith("-")) {
+                    hunk.lines.add(new Line(Op.DELETE, line.substring(1)));
+                } else if (line.startsWith("+")) {
+                    hunk.lines.add(new Line(Op.INSERT, line.substring(1)));
+                } else if (line.startsWith(" ") || line.isEmpty()) {
+                    hunk.lines.add(new Line(Op.CONTEXT, line.isEmpty() ? line : line.substring(1)));
+                }
+                // "\ No newline at end of file" 等说明行忽略
+            }
+            return hunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // 打开文件的读取通道，文件不存在时读取 snapshot 压缩包中的条目，都不存在时返回 null
+    public static ReadableByteChannel openChannel(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        if (Files.exists(path)) {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+        byte[] content = SnapshotStore.readPath(filePath);
+        return content == null ? null : Channels.newChannel(new ByteArrayInputStream(content));
+    }
+
+    // 按 UTF-8 逐行读取文件或 snapshot 条目，无法解码的字节替换为替换字符，与 readFileContent 一致
+    public static BufferedReader openReader(String filePath) throws IOException {
+        ReadableByteChannel channel = openChannel(filePath);
+        if (channel == null) {
+            return null;
+        }
+        return new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE), -1), 64 * 1024);
+    }
+
+    // 把 hunk 逐个应用到原始内容上，边读边写，内存中只有当前的 hunk
+    public static void applyPatch(BufferedReader original, HunkReader hunks, Writer output) throws IOException {
+        int lineNumber = 1; // 原始内容中下一行的行号
+        String line;
+        Hunk hunk;
+        while ((hunk = hunks.next()) != null) {
+            // 复制 hunk 之前没有变化的行，oldCount 为 0 时新行插入在 oldStart 行之后
+            int lastUnchanged = hunk.oldCount == 0 ? hunk.oldStart : hunk.oldStart - 1;
+            while (lineNumber <= lastUnchanged && (line = original.readLine()) != null) {
+                output.write(line);
+                output.write('\n');
+                lineNumber++;
+            }
+            for (Line hunkLine : hunk.lines) {
+                if (hunkLine.op == Op.INSERT) {
+                    output.write(hunkLine.text);
+                    output.write('\n');
+                    continue;
+                }
+                line = original.readLine();
+                lineNumber++;
+                if (hunkLine.op == Op.CONTEXT) {
+                    output.write(line != null ? line : hunkLine.text);
+                    output.write('\n');
+                }
+            }
+        }
+        // 复制最后一个 hunk 之后的行
+        while ((line = original.readLine()) != null) {
+            output.write(line);
+            output.write('\n');
+        }
+    }
+
+    // 解析 .diff 文件
+    public static Diff parseDiffFile(String diffFilePath) {
+        Diff diff = new Diff();
+        try (BufferedReader reader = openReader(diffFilePath)) {
+            if (reader == null) {
+                return diff;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("---")) {
+                    diff.originalFilePath = line.substring(4).trim(); // 提取初始文件路径
+                } else if (line.startsWith("+++")) {
+                    diff.targetFilePath = line.substring(4).trim(); // 提取目标文件路径
+                } else if (line.startsWith("-") || line.startsWith("+") || line.startsWith("@@")) {
+                    // 将差异的行保存下来
+                    diff.diffLines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return diff;
+    }
+
+    public static String readFileContent(String filePath) {
+        File file = new File(filePath);
+        try {
+            if (!file.exists()) {
+                // 历史条目（diff 文件和 base 版本文件）只存在于 snapshot 的压缩包中
+                byte[] content = SnapshotStore.readPath(filePath);
+                if (content != null) {
+                    return new String(content, StandardCharsets.UTF_8);
+                }
+            }
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // 取得 diff 所记录的那一轮保存时的文件内容：优先从文件历史中读取（最新版本不需要应用任何差异），
+    // 旧版本生成的 diff 再退回到对 base 版本流式应用差异
+    public static String readDiffTarget(String diffFilePath, Diff diff) {
+        try {
+            byte[] content = SnapshotStore.readHistoryState(diffFilePath, diff.targetFilePath);
+            if (content != null) {
+                return new String(content, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (diff.originalFilePath == null) {
+            return null;
+        }
+        // 在原始内容上流式应用 diff 中的 hunk
+        try (BufferedReader original = openReader(diff.originalFilePath)) {
+            BufferedReader diffReader = original == null ? null : openReader(diffFilePath);
+            if (diffReader == null) {
+                return null;
+            }
+            try (HunkReader hunks = new HunkReader(diffReader)) {
+                StringWriter newContent = new StringWriter();
+                applyPatch(original, hunks, newContent);
+                return newContent.toString();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
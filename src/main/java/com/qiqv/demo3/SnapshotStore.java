@@ -0,0 +1,663 @@
+package com.qiqv.demo3;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+//
+// 这个类实现 snapshot 下按内容寻址的对象存储：
+// 文件内容按 SHA-1 存放，相同内容只存一份，每个版本只保存一个文件索引清单（见 VersionIndex）。
+// 所有条目都追加写入 snapshot/pack 中的压缩包文件，key 的格式为：
+//   objects/<哈希>                 文件内容，或大文件的一个块
+//   chunks/<哈希>                  超过 CHUNK_THRESHOLD 的内容的块列表，每行 "块哈希 长度"（见 Chunker）
+//   version/Version_<时间戳>        版本清单
+//   diff/diff_<时间戳>/<文件名>.diff  差异文件
+//
+public class SnapshotStore {
+    public static final int CHUNK_THRESHOLD = 1024 * 1024; // 超过这个大小的内容按块保存，修改一小部分只写入变化的块
+    private static final int CHUNK_BATCH_BYTES = 8 * 1024 * 1024; // 流式保存大文件时，新块攒够这么多再写入一次
+    private static final Map<Path, SnapshotStore> stores = new ConcurrentHashMap<>(); // 每个 snapshot 目录对应一个实例
+
+    private final Path snapshotRoot;  // snapshot 文件夹
+    private final Map<String, VersionIndex> manifests = new ConcurrentHashMap<>(); // 已加载的版本清单
+    private PackFile pack; // 历史条目的压缩包文件
+    private VersionHistory history; // 每个文件的关键帧、增量记录链
+    private SearchIndex searchIndex; // 整个历史的全文索引
+    private LineProvenance lineProvenance; // 每个文件每一行最后一次修改的时刻
+    private Journal journal; // 一轮保存的预写日志
+    private final List<Runnable> afterCommit = new ArrayList<>(); // 这一轮提交之后才发出的通知，回滚时丢弃
+    private final List<Consumer<List<String>>> entryListeners = new CopyOnWriteArrayList<>(); // 新版本、新 diff 写入后的通知
+    private final List<Consumer<List<String>>> removalListeners = new CopyOnWriteArrayList<>(); // 整理历史删除条目后的通知
+    private final ReentrantReadWriteLock maintenanceLock = new ReentrantReadWriteLock(); // 保存时持有读锁，整理历史时持有写锁
+
+    private SnapshotStore(Path snapshotRoot) {
+        this.snapshotRoot = snapshotRoot;
+    }
+
+    // 获取 snapshot 目录对应的存储实例
+    public static SnapshotStore forRoot(Path snapshotRoot) {
+        return stores.computeIfAbsent(snapshotRoot.toAbsolutePath().normalize(), SnapshotStore::new);
+    }
+
+    public Path getSnapshotRoot() {
+        return snapshotRoot;
+    }
+
+    // 开始一轮保存，正在整理历史时返回 false，这一轮应当跳过。必须在同一线程中调用 endCapture
+    public boolean tryBeginCapture() {
+        return maintenanceLock.readLock().tryLock();
+    }
+
+    public void endCapture() {
+        maintenanceLock.readLock().unlock();
+    }
+
+    // 开始整理历史，正在保存时返回 false。必须在同一线程中调用 endMaintenance
+    public boolean tryBeginMaintenance() {
+        return maintenanceLock.writeLock().tryLock();
+    }
+
+    public void endMaintenance() {
+        maintenanceLock.writeLock().unlock();
+    }
+
+    // 监听新写入的版本清单和 diff 条目，参数为新条目的 key
+    public void addEntryListener(Consumer<List<String>> listener) {
+        entryListeners.add(listener);
+    }
+
+    public void removeEntryListener(Consumer<List<String>> listener) {
+        entryListeners.remove(listener);
+    }
+
+    // 监听被删除的版本清单和 diff 条目（整理历史时），参数为被删除条目的 key
+    public void addRemovalListener(Consumer<List<String>> listener) {
+        removalListeners.add(listener);
+    }
+
+    public void removeRemovalListener(Consumer<List<String>> listener) {
+        removalListeners.remove(listener);
+    }
+
+    private void fireEntriesAdded(List<String> keys) {
+        afterCommit(() -> {
+            for (Consumer<List<String>> listener : entryListeners) {
+                listener.accept(keys);
+            }
+        });
+    }
+
+    // 在一轮保存中写入的内容，等提交之后再通知监听者，回滚时不通知；不在一轮保存中时立即通知
+    void afterCommit(Runnable notification) {
+        synchronized (this) {
+            if (journal != null && journal.isOpen()) {
+                afterCommit.add(notification);
+                return;
+            }
+        }
+        notification.run();
+    }
+
+    // 取出并清空这一轮攒下的通知
+    private synchronized List<Runnable> takeAfterCommit() {
+        List<Runnable> notifications = new ArrayList<>(afterCommit);
+        afterCommit.clear();
+        return notifications;
+    }
+
+    // 预写日志，首次使用时回滚上次没有完成的一轮保存，必须在打开压缩包和记录链日志之前调用
+    private synchronized Journal journal() throws IOException {
+        if (journal == null) {
+            Path packDirectory = snapshotRoot.resolve("pack");
+            Files.createDirectories(packDirectory);
+            Journal recovered = new Journal(packDirectory);
+            recovered.recover();
+            journal = recovered;
+        }
+        return journal;
+    }
+
+    private synchronized PackFile pack() throws IOException {
+        if (pack == null) {
+            journal();
+            pack = new PackFile(snapshotRoot.resolve("pack"));
+        }
+        return pack;
+    }
+
+    // 每个文件的完整历史，首次使用时读取记录链日志；回滚之后重新读取时重新注册索引的监听
+    public synchronized VersionHistory getHistory() throws IOException {
+        if (history == null) {
+            journal();
+            history = new VersionHistory(this, snapshotRoot.resolve("pack").resolve("history.log"));
+            history.setStorageMode(VersionHistory.loadStorageMode(snapshotRoot)); // 读取 snapshot/pack/history.conf
+            if (searchIndex != null) {
+                history.addCommitListener(searchIndex::enqueue);
+                history.addCompactListener(searchIndex::compacted);
+            }
+            if (lineProvenance != null) {
+                history.addCommitListener(lineProvenance::enqueue);
+                history.addCompactListener(lineProvenance::compacted);
+            }
+        }
+        return history;
+    }
+
+    // 开始一轮保存：记下压缩包、索引和记录链日志的长度。必须在同一线程中调用 commitTransaction 或 abortTransaction
+    public void beginTransaction(String description) throws IOException {
+        journal().begin(description);
+    }
+
+    // 这一轮的数据全部落盘之后写入提交标记，然后通知索引和监听者
+    public void commitTransaction() throws IOException {
+        List<Runnable> notifications = takeAfterCommit(); // 提交失败时这一轮会被回滚，不再通知
+        journal().commit();
+        for (Runnable notification : notifications) {
+            notification.run();
+        }
+    }
+
+    // 这一轮出错：把数据文件截回开始时的长度，丢弃内存中的压缩包索引、版本清单和文件历史，下次使用时重新读取
+    public void abortTransaction() {
+        takeAfterCommit(); // 这一轮写入的内容已经回滚，丢弃通知
+        try {
+            synchronized (this) {
+                try {
+                    if (pack != null) {
+                        pack.close();
+                    }
+                } finally {
+                    pack = null;
+                    history = null;
+                    manifests.clear();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                journal.abort();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("无法回滚这一轮保存，下次打开时再回滚");
+            }
+        }
+    }
+
+    // 全文索引，首次使用时读取索引文件，之后随文件历史的每次提交在后台更新，并补上索引文件中缺少的记录
+    public synchronized SearchIndex getSearchIndex() throws IOException {
+        if (searchIndex == null) {
+            VersionHistory history = getHistory();
+            searchIndex = new SearchIndex(this, snapshotRoot.resolve("index").resolve("search.dat"));
+            history.addCommitListener(searchIndex::enqueue);
+            history.addCompactListener(searchIndex::compacted);
+            searchIndex.enqueueAll();
+        }
+        return searchIndex;
+    }
+
+    // 行来源索引，首次使用时读取索引文件，之后随文件历史的每次提交在后台更新
+    public synchronized LineProvenance getLineProvenance() throws IOException {
+        if (lineProvenance == null) {
+            VersionHistory history = getHistory();
+            lineProvenance = new LineProvenance(this, snapshotRoot.resolve("index").resolve("provenance.dat"));
+            history.addCommitListener(lineProvenance::enqueue);
+            history.addCompactListener(lineProvenance::compacted);
+            lineProvenance.enqueueAll();
+        }
+        return lineProvenance;
+    }
+
+    // 批量写入条目，压缩包中已有的 key 不再写入（key 由内容哈希决定时内容一定相同），大的 objects/ 条目按块保存
+    public void putEntries(Map<String, byte[]> entries) throws IOException {
+        Map<String, byte[]> newEntries = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith("objects/")) {
+                String hash = key.substring("objects/".length());
+                if (hasBlob(hash)) {
+                    continue;
+                }
+                if (entry.getValue().length > CHUNK_THRESHOLD) {
+                    putChunked(hash, entry.getValue());
+                    continue;
+                }
+            }
+            if (!pack().contains(key)) {
+                newEntries.put(key, entry.getValue());
+            }
+        }
+        pack().appendAll(newEntries);
+    }
+
+    // 打开后写入压缩包的字节数，一轮保存前后相减即为这一轮写入的字节数
+    public long getBytesWritten() throws IOException {
+        return pack().getBytesWritten();
+    }
+
+    // 按 key 读取条目，objects/ 条目按块保存时按块列表拼接
+    public byte[] readEntry(String key) throws IOException {
+        if (key.startsWith("objects/")) {
+            return readBlob(key.substring("objects/".length()));
+        }
+        return pack().read(key);
+    }
+
+    // 批量保存文件内容（相对路径 -> 内容），已存在相同内容时不再写入，返回 相对路径 -> 内容哈希
+    public Map<String, String> putBlobs(Map<String, byte[]> contents) throws IOException {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        Map<String, byte[]> newObjects = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            String hash = hash(entry.getValue());
+            hashes.put(entry.getKey(), hash);
+            if (hasBlob(hash) || newObjects.containsKey("objects/" + hash)) {
+                continue;
+            }
+            if (entry.getValue().length > CHUNK_THRESHOLD) {
+                putChunked(hash, entry.getValue());
+            } else {
+                newObjects.put("objects/" + hash, entry.getValue());
+            }
+        }
+        pack().appendAll(newObjects);
+        return hashes;
+    }
+
+    // 保存磁盘上的文件，返回内容哈希。大文件按区域内存映射、边读边切分（见 LargeFiles）
+    public String putFile(Path file) throws IOException {
+        if (Files.size(file) <= CHUNK_THRESHOLD) {
+            byte[] content = Files.readAllBytes(file);
+            return putBlobs(Collections.singletonMap(file.toString(), content)).get(file.toString());
+        }
+        try (ReadableByteChannel channel = LargeFiles.openMapped(file)) {
+            return putChannel(channel);
+        }
+    }
+
+    // 按块保存超过 CHUNK_THRESHOLD 的内容，返回内容哈希。内存中只有当前一批新块，已有的块不再写入
+    public String putChannel(ReadableByteChannel channel) throws IOException {
+        MessageDigest digest = newDigest();
+        StringBuilder chunkList = new StringBuilder();
+        Map<String, byte[]> newChunks = new LinkedHashMap<>();
+        long pendingBytes = 0;
+        Chunker.Reader reader = new Chunker.Reader(channel);
+        byte[] chunk;
+        while ((chunk = reader.next()) != null) {
+            digest.update(chunk);
+            String chunkHash = hash(chunk);
+            chunkList.append(chunkHash).append(' ').append(chunk.length).append('\n');
+            if (!pack().contains("objects/" + chunkHash) && newChunks.put("objects/" + chunkHash, chunk) == null) {
+                pendingBytes += chunk.length;
+                if (pendingBytes >= CHUNK_BATCH_BYTES) {
+                    pack().appendAll(newChunks);
+                    newChunks.clear();
+                    pendingBytes = 0;
+                }
+            }
+        }
+        pack().appendAll(newChunks);
+        String hash = toHex(digest.digest());
+        if (!hasBlob(hash)) {
+            pack().append("chunks/" + hash, chunkList.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return hash;
+    }
+
+    // 把内容切分成块保存，已有的块不再写入，最后写入块列表
+    private void putChunked(String hash, byte[] content) throws IOException {
+        StringBuilder chunkList = new StringBuilder();
+        Map<String, byte[]> newChunks = new LinkedHashMap<>();
+        for (int start = 0; start < content.length; ) {
+            int length = Chunker.nextChunk(content, start, content.length);
+            byte[] chunk = Arrays.copyOfRange(content, start, start + length);
+            String chunkHash = hash(chunk);
+            chunkList.append(chunkHash).append(' ').append(length).append('\n');
+            if (!pack().contains("objects/" + chunkHash)) {
+                newChunks.put("objects/" + chunkHash, chunk);
+            }
+            start += length;
+        }
+        pack().appendAll(newChunks);
+        pack().append("chunks/" + hash, chunkList.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 内容是否已经保存（整体保存或按块保存）
+    public boolean hasBlob(String hash) throws IOException {
+        return pack().contains("objects/" + hash) || pack().contains("chunks/" + hash);
+    }
+
+    // 内容是否按块保存
+    public boolean isChunked(String hash) throws IOException {
+        return pack().contains("chunks/" + hash);
+    }
+
+    // 内容占用的所有条目：按块保存时为块列表和每个块，否则为 objects/<哈希>
+    public List<String> blobKeys(String hash) throws IOException {
+        List<String> keys = new ArrayList<>();
+        byte[] chunkList = pack().read("chunks/" + hash);
+        if (chunkList == null) {
+            keys.add("objects/" + hash);
+            return keys;
+        }
+        keys.add("chunks/" + hash);
+        for (String line : new String(chunkList, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                keys.add("objects/" + line.substring(0, line.indexOf(' ')));
+            }
+        }
+        return keys;
+    }
+
+    // 按哈希读取文件内容，按块保存的内容按块列表拼接
+    public byte[] readBlob(String hash) throws IOException {
+        byte[] content = pack().read("objects/" + hash);
+        if (content == null) {
+            byte[] chunkList = pack().read("chunks/" + hash);
+            if (chunkList != null) {
+                return readChunked(chunkList);
+            }
+            throw new NoSuchFileException("objects/" + hash);
+        }
+        return content;
+    }
+
+    // 按哈希流式读取文件内容，按块保存的内容每次只读入一个块
+    public InputStream openBlob(String hash) throws IOException {
+        byte[] chunkList = pack().read("chunks/" + hash);
+        if (chunkList == null) {
+            return new ByteArrayInputStream(readBlob(hash));
+        }
+        Iterator<String> lines = Arrays.asList(new String(chunkList, StandardCharsets.UTF_8).split("\n")).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private String next = advance();
+
+            private String advance() {
+                while (lines.hasNext()) {
+                    String line = lines.next();
+                    if (!line.isEmpty()) {
+                        return line.substring(0, line.indexOf(' '));
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasMoreElements() {
+                return next != null;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunkHash = next;
+                next = advance();
+                try {
+                    byte[] chunk = pack().read("objects/" + chunkHash);
+                    if (chunk == null) {
+                        throw new IOException("缺少内容块: " + chunkHash);
+                    }
+                    return new ByteArrayInputStream(chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    // 内容的字节数，按块保存的内容只读取块列表
+    public long blobSize(String hash) throws IOException {
+        byte[] chunkList = pack().read("chunks/" + hash);
+        if (chunkList == null) {
+            return readBlob(hash).length;
+        }
+        long size = 0;
+        for (String line : new String(chunkList, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                size += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+            }
+        }
+        return size;
+    }
+
+    private byte[] readChunked(byte[] chunkList) throws IOException {
+        String[] lines = new String(chunkList, StandardCharsets.UTF_8).split("\n");
+        long size = 0;
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                size += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+            }
+        }
+        byte[] content = new byte[Math.toIntExact(size)];
+        int position = 0;
+        for (String line : lines) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String chunkHash = line.substring(0, line.indexOf(' '));
+            byte[] chunk = pack().read("objects/" + chunkHash);
+            if (chunk == null) {
+                throw new IOException("缺少内容块: " + chunkHash);
+            }
+            System.arraycopy(chunk, 0, content, position, chunk.length);
+            position += chunk.length;
+        }
+        return content;
+    }
+
+    // 写入一个版本的清单（相对路径 -> 大小、修改时间、内容哈希）
+    public void writeManifest(String versionName, VersionIndex index) throws IOException {
+        pack().append("version/" + versionName, index.toBytes());
+        manifests.put(versionName, index);
+        fireEntriesAdded(Collections.singletonList("version/" + versionName));
+    }
+
+    // 读取一个版本的清单，不存在时返回 null
+    public VersionIndex readManifest(String versionName) throws IOException {
+        VersionIndex cached = manifests.get(versionName);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] content = pack().read("version/" + versionName);
+        if (content == null) {
+            return null;
+        }
+        VersionIndex index = VersionIndex.parse(content);
+        manifests.put(versionName, index);
+        return index;
+    }
+
+    // 所有版本名（Version_<时间戳>），按时间排序
+    public List<String> listVersions() throws IOException {
+        return listKeys("version/").stream()
+                .map(key -> key.substring("version/".length()))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    // 最新的版本名，时间戳格式保证按字符串排序即按时间排序
+    public String latestVersion() throws IOException {
+        List<String> names = listVersions();
+        return names.isEmpty() ? null : names.get(names.size() - 1);
+    }
+
+    // 读取某个版本中的文件内容，文件不在该版本中时返回 null
+    public byte[] readVersionFile(String versionName, String relativePath) throws IOException {
+        VersionIndex index = readManifest(versionName);
+        VersionIndex.Entry entry = index == null ? null : index.get(relativePath);
+        if (entry == null) {
+            return null;
+        }
+        return readBlob(entry.hash);
+    }
+
+    // 一次写入本轮生成的所有差异文件（文件名 -> diff 内容）
+    public void writeDiffs(String diffFolderName, Map<String, String> diffs) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, String> diff : diffs.entrySet()) {
+            entries.put("diff/" + diffFolderName + "/" + diff.getKey(), diff.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        pack().appendAll(entries);
+        fireEntriesAdded(new ArrayList<>(entries.keySet()));
+    }
+
+    // 删除条目，版本清单同时从缓存中移除。空间在 rewritePackIfWasteful 时回收
+    public void removeEntries(Collection<String> keys) throws IOException {
+        for (String key : keys) {
+            pack().remove(key);
+            if (key.startsWith("version/")) {
+                manifests.remove(key.substring("version/".length()));
+            }
+        }
+        List<String> removed = new ArrayList<>(keys);
+        afterCommit(() -> {
+            for (Consumer<List<String>> listener : removalListeners) {
+                listener.accept(removed);
+            }
+        });
+    }
+
+    // 无效数据超过有效数据时重写压缩包，返回回收的字节数
+    public long rewritePackIfWasteful() throws IOException {
+        long wasted = pack().wastedBytes();
+        long total = Files.size(snapshotRoot.resolve("pack").resolve("history.pack"));
+        if (wasted * 2 <= total) {
+            return 0;
+        }
+        pack().rewrite();
+        return wasted;
+    }
+
+    // 按前缀列出压缩包中的条目，结果已排序
+    public List<String> listKeys(String prefix) throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (String key : pack().keys()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    // 读取 snapshot 中的一个条目，路径形如 <项目>/snapshot/<key>。
+    // 其中 <项目>/snapshot/version/Version_xxx/相对路径 是 diff 文件头中记录的 base 版本文件，按清单解析。
+    // 不在压缩包中时返回 null
+    public static byte[] readPath(String filePath) throws IOException {
+        String marker = "/snapshot/";
+        int index = filePath.indexOf(marker);
+        if (index < 0) {
+            return null;
+        }
+        SnapshotStore store = forRoot(Paths.get(filePath.substring(0, index + marker.length() - 1)));
+        String key = filePath.substring(index + marker.length());
+        if (key.startsWith("version/")) {
+            String remainder = key.substring("version/".length());
+            int slash = remainder.indexOf('/');
+            if (slash < 0) {
+                return null;
+            }
+            return store.readVersionFile(remainder.substring(0, slash), remainder.substring(slash + 1));
+        }
+        return store.pack().read(key);
+    }
+
+    // 从文件历史中读取 diff 对应时刻的文件内容，diff 路径形如 <项目>/snapshot/diff/diff_<时间戳>/<文件名>.diff。
+    // 文件历史没有覆盖这一时刻（旧版本生成的 diff）时返回 null
+    public static byte[] readHistoryState(String diffFilePath, String targetFilePath) throws IOException {
+        String marker = "/snapshot/diff/diff_";
+        int index = diffFilePath.indexOf(marker);
+        String projectRoot = diffFilePath.substring(0, Math.max(index, 0));
+        if (index < 0 || targetFilePath == null || !targetFilePath.startsWith(projectRoot + "/")) {
+            return null;
+        }
+        String timeStamp = diffFilePath.substring(index + marker.length());
+        timeStamp = timeStamp.substring(0, Math.min(timeStamp.length(), "yyyyMMdd_HHmmss".length()));
+        long captureTime = parseTimeStamp(timeStamp);
+        if (captureTime < 0) {
+            return null;
+        }
+        SnapshotStore store = forRoot(Paths.get(projectRoot, "snapshot"));
+        // 文件夹名只精确到秒，同一秒内的记录都属于这一轮
+        return store.getHistory().reconstruct(targetFilePath.substring(projectRoot.length() + 1), captureTime + 999);
+    }
+
+    // 解析版本名、diff 文件夹名中 yyyyMMdd_HHmmss 格式的时间戳，格式不对时返回 -1
+    public static long parseTimeStamp(String timeStamp) {
+        try {
+            return new SimpleDateFormat("yyyyMMdd_HHmmss").parse(timeStamp).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    // 按行拆分文件内容，行为与 Files.readAllLines 一致
+    public static List<String> toLines(byte[] content) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(new String(content, StandardCharsets.UTF_8)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    // 计算内容的 SHA-1 哈希（十六进制）
+    public static String hash(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    // 内容是否为二进制：前 8000 个字节中有 0 字节（与 git 的判断方式相同）。二进制内容不按行对比
+    public static boolean isBinary(byte[] content) {
+        for (int i = 0; i < Math.min(content.length, 8000); i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
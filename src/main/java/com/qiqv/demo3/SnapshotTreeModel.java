@@ -0,0 +1,225 @@
+package com.qiqv.demo3;
+
+import javax.swing.*;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+//
+// 这个类是 snapshot 浏览窗口的树模型：文件夹节点在第一次展开时才读取子节点，读取后保留在节点中，
+// 之后再展开不会重新读取。子节点来自压缩包索引中的 version/、diff/ 条目，以及旧版本留下的单独文件。
+// 新版本、新 diff 写入后只在已经展开过的文件夹中插入对应的节点，整理历史删除条目后移除对应的节点，不重建整棵树
+//
+public class SnapshotTreeModel extends DefaultTreeModel {
+    private static final List<String> PACK_PREFIXES = Arrays.asList("version/", "diff/"); // 在树中显示的压缩包条目
+    private static final List<String> HIDDEN_FOLDERS = Arrays.asList("objects", "pack");  // 按哈希存放内容的目录不显示
+
+    // 文件夹节点，userObject 是文件夹名
+    public static class FolderNode extends DefaultMutableTreeNode {
+        private final String prefix; // 对应的 key 前缀，如 diff/diff_xxx/，根节点为空串
+        private boolean loaded;      // 子节点是否已经读取
+
+        FolderNode(String name, String prefix) {
+            super(name, true);
+            this.prefix = prefix;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public boolean isLoaded() {
+            return loaded;
+        }
+    }
+
+    private final SnapshotStore store;
+    private final Path snapshotRoot;
+    private final Consumer<List<String>> entryListener = keys -> SwingUtilities.invokeLater(() -> entriesAdded(keys));
+    private final Consumer<List<String>> removalListener = keys -> SwingUtilities.invokeLater(() -> entriesRemoved(keys));
+
+    public SnapshotTreeModel(Path snapshotRoot) {
+        super(new FolderNode(snapshotRoot.getFileName().toString(), ""), true); // 按 allowsChildren 判断叶子节点，未展开的文件夹也显示为文件夹
+        this.snapshotRoot = snapshotRoot;
+        this.store = SnapshotStore.forRoot(snapshotRoot);
+        loadChildren((FolderNode) getRoot());
+        store.addEntryListener(entryListener);
+        store.addRemovalListener(removalListener);
+    }
+
+    // 窗口关闭时停止接收新条目、删除条目的通知
+    public void dispose() {
+        store.removeEntryListener(entryListener);
+        store.removeRemovalListener(removalListener);
+    }
+
+    // 读取文件夹的子节点，已经读取过的文件夹直接返回
+    public void loadChildren(FolderNode folder) {
+        if (folder.loaded) {
+            return;
+        }
+        folder.loaded = true;
+        TreeMap<String, DefaultMutableTreeNode> children = new TreeMap<>(); // 按名字排序，时间戳命名的版本按时间排列
+        try {
+            for (String prefix : PACK_PREFIXES) {
+                if (folder.prefix.isEmpty() || folder.prefix.startsWith(prefix)) {
+                    for (String key : store.listKeys(folder.prefix.isEmpty() ? prefix : folder.prefix)) {
+                        addChild(children, folder.prefix, key);
+                    }
+                }
+            }
+            // 旧版本的 version、diff 文件夹中的单独文件与压缩包中的同名节点合并
+            Path directory = snapshotRoot.resolve(folder.prefix);
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    files.forEach(file -> {
+                        String name = file.getFileName().toString();
+                        if (Files.isDirectory(file)) {
+                            if (!folder.prefix.isEmpty() || !HIDDEN_FOLDERS.contains(name)) {
+                                children.putIfAbsent(name + "/", new FolderNode(name, folder.prefix + name + "/"));
+                            }
+                        } else {
+                            children.putIfAbsent(name, createEntryNode(file.toString(), name));
+                        }
+                    });
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (DefaultMutableTreeNode child : children.values()) {
+            folder.add(child);
+        }
+    }
+
+    // 把 key 在 prefix 下一级的名字加入子节点，key 还有下一级时加入文件夹
+    private void addChild(TreeMap<String, DefaultMutableTreeNode> children, String prefix, String key) {
+        String rest = key.substring(prefix.length());
+        int slash = rest.indexOf('/');
+        if (slash >= 0) {
+            String name = rest.substring(0, slash);
+            children.putIfAbsent(name + "/", new FolderNode(name, prefix + name + "/"));
+        } else {
+            children.putIfAbsent(rest, createEntryNode(snapshotRoot + "/" + key, rest));
+        }
+    }
+
+    // 条目节点保存完整路径 <项目>/snapshot/<key>，只显示文件名
+    private static DefaultMutableTreeNode createEntryNode(String entryPath, String entryName) {
+        return new DefaultMutableTreeNode(entryPath, false) {
+            @Override
+            public String toString() {
+                return entryName;
+            }
+        };
+    }
+
+    // 新条目写入后，在已经展开过的文件夹中插入节点；没有展开过的文件夹展开时自然会读到
+    private void entriesAdded(List<String> keys) {
+        for (String key : keys) {
+            FolderNode folder = (FolderNode) getRoot();
+            while (folder.loaded) {
+                String rest = key.substring(folder.prefix.length());
+                int slash = rest.indexOf('/');
+                String name = slash >= 0 ? rest.substring(0, slash) : rest;
+                DefaultMutableTreeNode child = findChild(folder, name, slash >= 0);
+                if (child == null) {
+                    child = slash >= 0 ? new FolderNode(name, folder.prefix + name + "/")
+                            : createEntryNode(snapshotRoot + "/" + key, name);
+                    insertSorted(folder, child);
+                }
+                if (slash < 0) {
+                    break;
+                }
+                folder = (FolderNode) child;
+            }
+        }
+    }
+
+    // 条目被删除后，移除已经展开过的文件夹中的节点；文件夹中不再有任何条目（也不是旧版本留下的目录）时一起移除
+    private void entriesRemoved(List<String> keys) {
+        Set<FolderNode> touched = new HashSet<>();
+        for (String key : keys) {
+            FolderNode folder = (FolderNode) getRoot();
+            while (folder.loaded) {
+                String rest = key.substring(folder.prefix.length());
+                int slash = rest.indexOf('/');
+                String name = slash >= 0 ? rest.substring(0, slash) : rest;
+                DefaultMutableTreeNode child = findChild(folder, name, slash >= 0);
+                if (child == null) {
+                    break;
+                }
+                if (slash < 0) {
+                    if (!Files.exists(snapshotRoot.resolve(key))) {
+                        removeNodeFromParent(child);
+                    }
+                    break;
+                }
+                folder = (FolderNode) child;
+                touched.add(folder);
+            }
+        }
+        if (touched.isEmpty()) {
+            return;
+        }
+        List<String> remaining;
+        try {
+            remaining = store.listKeys(""); // 已经排好序
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // 从最深的文件夹开始，子文件夹移除后父文件夹可能也空了
+        List<FolderNode> folders = new ArrayList<>(touched);
+        folders.sort((a, b) -> b.prefix.length() - a.prefix.length());
+        for (FolderNode folder : folders) {
+            boolean empty = folder.loaded ? folder.getChildCount() == 0 : !hasKeyUnder(remaining, folder.prefix);
+            if (empty && folder.getParent() != null && !Files.isDirectory(snapshotRoot.resolve(folder.prefix))) {
+                removeNodeFromParent(folder);
+            }
+        }
+    }
+
+    // 排好序的 keys 中是否有以 prefix 开头的
+    private static boolean hasKeyUnder(List<String> keys, String prefix) {
+        int position = Collections.binarySearch(keys, prefix);
+        int index = position < 0 ? -position - 1 : position;
+        return index < keys.size() && keys.get(index).startsWith(prefix);
+    }
+
+    private DefaultMutableTreeNode findChild(FolderNode folder, String name, boolean isFolder) {
+        for (int i = 0; i < folder.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) folder.getChildAt(i);
+            if (child.toString().equals(name) && (child instanceof FolderNode) == isFolder) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    // 按名字顺序插入节点并通知树刷新
+    private void insertSorted(FolderNode folder, DefaultMutableTreeNode child) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < folder.getChildCount(); i++) {
+            names.add(sortKey((DefaultMutableTreeNode) folder.getChildAt(i)));
+        }
+        int position = Collections.binarySearch(names, sortKey(child));
+        insertNodeInto(child, folder, position < 0 ? -position - 1 : position);
+    }
+
+    // 与 loadChildren 中的排序一致，文件夹名后面加 /
+    private static String sortKey(DefaultMutableTreeNode node) {
+        return node instanceof FolderNode ? node.toString() + "/" : node.toString();
+    }
+}
@@ -0,0 +1,567 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Patch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+//
+// 这个类记录每个文件的完整历史，可以还原任意文件在任意保存时刻的内容。
+// 每个文件的历史是一条由关键帧（完整内容）和增量（行级差异）组成的记录链，有两种存储方式：
+//   FORWARD_DELTA：关键帧后面跟着若干正向增量（相对前一个状态），
+//   REVERSE_DELTA：最新状态总是关键帧，新状态到来时把上一个关键帧改写为反向增量（相对后一个状态），
+//                  读取最新版本不需要应用任何增量。
+// 连续的增量超过 MAX_CHAIN_LENGTH 或增量比内容的一半还大时保留关键帧，所以还原任何版本最多应用 MAX_CHAIN_LENGTH 个增量。
+// 二进制文件和大文件不计算行级增量，每个状态都是关键帧，大文件的关键帧按块保存（见 Chunker），只写入变化的块。
+// 记录链保存在 snapshot/pack/history.log 中（同一时刻的后一行覆盖前一行），关键帧和增量本身保存在压缩包里。
+// 新记录的存储方式可以写在 snapshot/pack/history.conf 中，例如 storageMode=FORWARD_DELTA（# 开头的行是注释），
+// 没有配置时使用 REVERSE_DELTA；两种方式的记录可以在同一条记录链中共存，改变配置不影响已有的记录
+//
+public class VersionHistory {
+    public static final int MAX_CHAIN_LENGTH = 16; // 两个关键帧之间最多的增量个数
+
+    public static final char KEYFRAME = 'K'; // 完整内容，key 为 objects/<哈希>
+    public static final char DELTA = 'D';    // 相对前一个状态的增量，key 为 delta/<哈希>
+    public static final char REVERSE = 'R';  // 相对后一个状态的反向增量，key 为 delta/<哈希>
+    public static final char DELETED = 'X';  // 文件被删除
+
+    public enum StorageMode { FORWARD_DELTA, REVERSE_DELTA }
+
+    // 记录链中的一条记录
+    public static class Record {
+        public final long timestamp; // 保存时刻（毫秒）
+        public final char kind;      // KEYFRAME、DELTA 或 DELETED
+        public final String hash;    // 这一时刻文件内容的哈希
+        public final String key;     // 关键帧或增量在压缩包中的 key
+
+        public Record(long timestamp, char kind, String hash, String key) {
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.hash = hash;
+            this.key = key;
+        }
+    }
+
+    // 准备好但还没有提交的记录，一轮保存的所有记录一起提交
+    public static class Pending {
+        public final String relativePath;
+        public final Record record;
+        public final byte[] entryContent; // 需要写入压缩包的内容，已存在时为 null
+        public final Record converted;     // 反向增量模式下，改写为反向增量的上一个关键帧
+        public final byte[] convertedContent;
+
+        public Pending(String relativePath, Record record, byte[] entryContent) {
+            this(relativePath, record, entryContent, null, null);
+        }
+
+        public Pending(String relativePath, Record record, byte[] entryContent, Record converted, byte[] convertedContent) {
+            this.relativePath = relativePath;
+            this.record = record;
+            this.entryContent = entryContent;
+            this.converted = converted;
+            this.convertedContent = convertedContent;
+        }
+    }
+
+    private final SnapshotStore snapshotStore;
+    private final Path logPath; // 记录链日志
+    private final Map<String, List<Record>> chains = new ConcurrentHashMap<>(); // 相对路径 -> 按时间排序的记录
+    private volatile StorageMode storageMode = StorageMode.REVERSE_DELTA; // 新记录的存储方式
+    private final List<Consumer<List<String>>> commitListeners = new CopyOnWriteArrayList<>(); // 提交新记录后的通知，参数为相对路径
+    private final List<Consumer<Map<String, Long>>> compactListeners = new CopyOnWriteArrayList<>(); // 整理删除记录后的通知，参数为相对路径 -> 最早被删除的时刻
+
+    public VersionHistory(SnapshotStore snapshotStore, Path logPath) throws IOException {
+        this.snapshotStore = snapshotStore;
+        this.logPath = logPath;
+        loadLog();
+    }
+
+    // 读取记录链日志，每行 "时刻 类型 哈希 key 相对路径"
+    private void loadLog() throws IOException {
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        for (String line : Files.readAllLines(logPath, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t", 5);
+            if (parts.length != 5) {
+                continue; // 写了一半的日志行直接忽略
+            }
+            addOrReplace(chainOf(parts[4]), new Record(Long.parseLong(parts[0]), parts[1].charAt(0), parts[2], parts[3]));
+        }
+    }
+
+    // 与最后一条记录时刻相同的记录是对它的改写（关键帧改为反向增量），否则追加
+    private static void addOrReplace(List<Record> chain, Record record) {
+        if (!chain.isEmpty() && chain.get(chain.size() - 1).timestamp == record.timestamp) {
+            chain.set(chain.size() - 1, record);
+        } else {
+            chain.add(record);
+        }
+    }
+
+    public void addCommitListener(Consumer<List<String>> listener) {
+        commitListeners.add(listener);
+    }
+
+    public void removeCommitListener(Consumer<List<String>> listener) {
+        commitListeners.remove(listener);
+    }
+
+    // 监听整理历史：每个文件从最早被删除的时刻起，保留下来的状态的前一个状态变了，按这些状态建立的索引需要重建
+    public void addCompactListener(Consumer<Map<String, Long>> listener) {
+        compactListeners.add(listener);
+    }
+
+    public void removeCompactListener(Consumer<Map<String, Long>> listener) {
+        compactListeners.remove(listener);
+    }
+
+    // 读取 snapshot/pack/history.conf 中的存储方式，文件不存在或格式不对时使用 REVERSE_DELTA
+    public static StorageMode loadStorageMode(Path snapshotRoot) {
+        StorageMode mode = StorageMode.REVERSE_DELTA;
+        Path config = snapshotRoot.resolve("pack").resolve("history.conf");
+        if (!Files.exists(config)) {
+            return mode;
+        }
+        try {
+            for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int equals = line.indexOf('=');
+                if (equals > 0 && line.substring(0, equals).trim().equals("storageMode")) {
+                    try {
+                        mode = StorageMode.valueOf(line.substring(equals + 1).trim());
+                        continue;
+                    } catch (IllegalArgumentException e) {
+                        // 按无法识别处理
+                    }
+                }
+                System.out.println("无法识别的文件历史参数: " + line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return mode;
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public void setStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    private List<Record> chainOf(String relativePath) {
+        return chains.computeIfAbsent(relativePath, path -> new CopyOnWriteArrayList<>());
+    }
+
+    // 为文件的新内容准备一条记录，内容与最新记录相同时返回 null
+    public Pending prepare(String relativePath, long timestamp, byte[] content) throws IOException {
+        return prepare(chains.getOrDefault(relativePath, Collections.emptyList()), relativePath, timestamp, content);
+    }
+
+    private Pending prepare(List<Record> chain, String relativePath, long timestamp, byte[] content) throws IOException {
+        String hash = SnapshotStore.hash(content);
+        Record head = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+        if (head != null && head.kind != DELETED && head.hash.equals(hash)) {
+            return null;
+        }
+        if (storageMode == StorageMode.REVERSE_DELTA) {
+            return prepareHead(chain, relativePath, new Record(timestamp, KEYFRAME, hash, "objects/" + hash), content, content);
+        }
+        if (head != null && head.kind != DELETED && chainLength(chain) < MAX_CHAIN_LENGTH
+                && isLineContent(content) && !snapshotStore.isChunked(head.hash)) {
+            byte[] previous = contentAt(chain, chain.size() - 1);
+            byte[] delta = isLineContent(previous) ? encodeDelta(toLineList(previous), toLineList(content)) : null;
+            // 增量比内容的一半还大时，直接存关键帧更划算
+            if (delta != null && delta.length * 2 < content.length) {
+                String deltaKey = "delta/" + SnapshotStore.hash(delta);
+                return new Pending(relativePath, new Record(timestamp, DELTA, hash, deltaKey), delta);
+            }
+        }
+        return new Pending(relativePath, new Record(timestamp, KEYFRAME, hash, "objects/" + hash), content);
+    }
+
+    // 文件内容已经作为对象保存过（例如保存整个项目时），直接以关键帧引用它
+    public Pending prepareStored(String relativePath, long timestamp, String hash) throws IOException {
+        List<Record> chain = chains.getOrDefault(relativePath, Collections.emptyList());
+        Record head = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+        if (head != null && head.kind != DELETED && head.hash.equals(hash)) {
+            return null;
+        }
+        Record record = new Record(timestamp, KEYFRAME, hash, "objects/" + hash);
+        if (storageMode == StorageMode.REVERSE_DELTA) {
+            return prepareHead(chain, relativePath, record, null, null);
+        }
+        return new Pending(relativePath, record, null);
+    }
+
+    // 反向增量模式：新状态作为关键帧，上一个关键帧改写为相对新状态的反向增量
+    private Pending prepareHead(List<Record> chain, String relativePath, Record record, byte[] entryContent, byte[] content) throws IOException {
+        int headIndex = chain.size() - 1;
+        if (headIndex >= 0 && chain.get(headIndex).kind == KEYFRAME && reverseLength(chain, headIndex) < MAX_CHAIN_LENGTH
+                && !snapshotStore.isChunked(chain.get(headIndex).hash) && !snapshotStore.isChunked(record.hash)) {
+            Record head = chain.get(headIndex);
+            byte[] previous = snapshotStore.readEntry(head.key);
+            byte[] current = content != null ? content : snapshotStore.readEntry(record.key);
+            if (!isLineContent(previous) || !isLineContent(current)) {
+                return new Pending(relativePath, record, entryContent); // 二进制内容保留关键帧
+            }
+            byte[] delta = encodeDelta(toLineList(current), toLineList(previous));
+            // 增量比内容的一半还大时，保留原来的关键帧
+            if (delta.length * 2 < previous.length) {
+                Record converted = new Record(head.timestamp, REVERSE, head.hash, "delta/" + SnapshotStore.hash(delta));
+                return new Pending(relativePath, record, entryContent, converted, delta);
+            }
+        }
+        return new Pending(relativePath, record, entryContent);
+    }
+
+    // 保存整个项目时记录一个版本：内容变化的文件以关键帧引用已保存的对象，不在版本中的文件记为删除
+    public void recordVersion(long timestamp, VersionIndex index) throws IOException {
+        List<Pending> pendings = new ArrayList<>();
+        for (String relativePath : index.paths()) {
+            Pending pending = prepareStored(relativePath, timestamp, index.get(relativePath).hash);
+            if (pending != null) {
+                pendings.add(pending);
+            }
+        }
+        for (String relativePath : paths()) {
+            Pending pending = index.contains(relativePath) ? null : prepareDeletion(relativePath, timestamp);
+            if (pending != null) {
+                pendings.add(pending);
+            }
+        }
+        commit(pendings);
+    }
+
+    // 为被删除的文件准备一条删除记录，已经是删除状态时返回 null
+    public Pending prepareDeletion(String relativePath, long timestamp) {
+        List<Record> chain = chains.get(relativePath);
+        if (chain == null || chain.isEmpty() || chain.get(chain.size() - 1).kind == DELETED) {
+            return null;
+        }
+        return new Pending(relativePath, new Record(timestamp, DELETED, "-", "-"), null);
+    }
+
+    // 一次提交一轮的所有记录：先把内容写入压缩包，再追加日志，最后更新内存中的记录链
+    public synchronized void commit(List<Pending> pendings) throws IOException {
+        if (pendings.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        StringBuilder log = new StringBuilder();
+        for (Pending pending : pendings) {
+            if (pending.converted != null) {
+                // 改写行写在新记录之前，读取日志时覆盖同一时刻的关键帧
+                entries.put(pending.converted.key, pending.convertedContent);
+                appendLogLine(log, pending.converted, pending.relativePath);
+            }
+            if (pending.entryContent != null) {
+                entries.put(pending.record.key, pending.entryContent);
+            }
+            appendLogLine(log, pending.record, pending.relativePath);
+        }
+        snapshotStore.putEntries(entries);
+        Files.write(logPath, log.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        List<String> paths = new ArrayList<>();
+        for (Pending pending : pendings) {
+            apply(chainOf(pending.relativePath), pending);
+            paths.add(pending.relativePath);
+        }
+        // 在一轮保存中时，等这一轮提交之后再通知索引
+        snapshotStore.afterCommit(() -> {
+            for (Consumer<List<String>> listener : commitListeners) {
+                listener.accept(paths);
+            }
+        });
+    }
+
+    private static void apply(List<Record> chain, Pending pending) {
+        if (pending.converted != null) {
+            addOrReplace(chain, pending.converted);
+        }
+        chain.add(pending.record);
+    }
+
+    // 按保留策略整理所有记录链：只保留策略选中的时刻，把这些时刻的内容按当前存储方式重新编码成新的记录链，
+    // 然后重写日志。anchors 是保留下来的版本和 diff_ 文件夹的时刻，恢复它们时按这些时刻还原文件，
+    // 所以每个文件在每个 anchor 时刻（含）之前的最后一条记录也要保留，否则还原出的是更早或更晚的内容。
+    // 返回整理后仍被引用的条目 key，其余的 objects/、delta/ 条目可以删除
+    public synchronized Set<String> compact(RetentionPolicy policy, long now, Collection<Long> anchors) throws IOException {
+        int droppedRecords = 0;
+        Map<String, Long> firstDropped = new HashMap<>();
+        for (Map.Entry<String, List<Record>> entry : chains.entrySet()) {
+            String relativePath = entry.getKey();
+            List<Record> chain = entry.getValue();
+            Set<Long> kept = policy.select(timestamps(relativePath), now);
+            for (long anchor : anchors) {
+                int index = findRecord(chain, anchor);
+                if (index >= 0) {
+                    kept.add(chain.get(index).timestamp);
+                }
+            }
+            if (kept.size() == chain.size()) {
+                continue;
+            }
+            droppedRecords += chain.size() - kept.size();
+            for (Record record : chain) {
+                if (!kept.contains(record.timestamp)) {
+                    firstDropped.put(relativePath, record.timestamp);
+                    break;
+                }
+            }
+            // 新的记录链在旁边构建好之后再替换，构建期间读取的仍是原来的记录链
+            List<Record> rebuilt = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < chain.size(); i++) {
+                Record record = chain.get(i);
+                if (!kept.contains(record.timestamp)) {
+                    continue;
+                }
+                Pending pending;
+                if (record.kind == DELETED) {
+                    boolean deleted = rebuilt.isEmpty() || rebuilt.get(rebuilt.size() - 1).kind == DELETED;
+                    pending = deleted ? null : new Pending(relativePath, record, null);
+                } else {
+                    pending = prepare(rebuilt, relativePath, record.timestamp, contentAt(chain, i));
+                }
+                if (pending == null) {
+                    continue;
+                }
+                // 下一个状态可能需要读取这一条记录的内容，所以逐条写入
+                Map<String, byte[]> entries = new LinkedHashMap<>();
+                if (pending.converted != null) {
+                    entries.put(pending.converted.key, pending.convertedContent);
+                }
+                if (pending.entryContent != null) {
+                    entries.put(pending.record.key, pending.entryContent);
+                }
+                snapshotStore.putEntries(entries);
+                apply(rebuilt, pending);
+            }
+            if (rebuilt.isEmpty()) {
+                chains.remove(relativePath); // 保留下来的只有删除记录
+            } else {
+                chains.put(relativePath, rebuilt);
+            }
+        }
+        if (droppedRecords > 0) {
+            rewriteLog();
+            System.out.println("整理文件历史: 删除 " + droppedRecords + " 条记录");
+            snapshotStore.afterCommit(() -> {
+                for (Consumer<Map<String, Long>> listener : compactListeners) {
+                    listener.accept(firstDropped);
+                }
+            });
+        }
+        Set<String> liveKeys = new HashSet<>();
+        for (List<Record> chain : chains.values()) {
+            for (Record record : chain) {
+                if (record.kind != DELETED) {
+                    liveKeys.add(record.key);
+                }
+            }
+        }
+        return liveKeys;
+    }
+
+    // 按内存中的记录链重写整个日志：先写临时文件再原子替换
+    private void rewriteLog() throws IOException {
+        StringBuilder log = new StringBuilder();
+        for (Map.Entry<String, List<Record>> entry : chains.entrySet()) {
+            for (Record record : entry.getValue()) {
+                appendLogLine(log, record, entry.getKey());
+            }
+        }
+        Path temp = logPath.resolveSibling(logPath.getFileName() + ".new");
+        Files.write(temp, log.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void appendLogLine(StringBuilder log, Record record, String relativePath) {
+        log.append(record.timestamp).append('\t').append(record.kind).append('\t').append(record.hash)
+                .append('\t').append(record.key).append('\t').append(relativePath).append('\n');
+    }
+
+    // 有记录的所有文件
+    public List<String> paths() {
+        return new ArrayList<>(chains.keySet());
+    }
+
+    // 文件的所有保存时刻
+    public List<Long> timestamps(String relativePath) {
+        List<Long> timestamps = new ArrayList<>();
+        for (Record record : chains.getOrDefault(relativePath, Collections.emptyList())) {
+            timestamps.add(record.timestamp);
+        }
+        return timestamps;
+    }
+
+    // 还原文件在 timestamp 时刻的内容；当时文件不存在或已删除时返回 null
+    public byte[] reconstruct(String relativePath, long timestamp) throws IOException {
+        List<Record> chain = chains.getOrDefault(relativePath, Collections.emptyList());
+        int target = findRecord(chain, timestamp);
+        if (target < 0 || chain.get(target).kind == DELETED) {
+            return null;
+        }
+        return contentAt(chain, target);
+    }
+
+    // 文件在 timestamp 时刻内容的哈希；当时文件不存在或已删除时返回 null
+    public String hashAt(String relativePath, long timestamp) {
+        List<Record> chain = chains.getOrDefault(relativePath, Collections.emptyList());
+        int target = findRecord(chain, timestamp);
+        return target < 0 || chain.get(target).kind == DELETED ? null : chain.get(target).hash;
+    }
+
+    // 记录链中第 index 条记录的内容
+    private byte[] contentAt(List<Record> chain, int index) throws IOException {
+        if (chain.get(index).kind == KEYFRAME) {
+            return snapshotStore.readEntry(chain.get(index).key); // 关键帧直接读取，不需要应用增量
+        }
+        return String.join("", linesAt(chain, index)).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // 最新的内容；反向增量模式下最新状态总是关键帧，只需要一次读取
+    public byte[] readLatest(String relativePath) throws IOException {
+        return reconstruct(relativePath, Long.MAX_VALUE);
+    }
+
+    // 正向增量从前一个状态推出，反向增量从后一个状态推出，直到遇到关键帧
+    private List<String> linesAt(List<Record> chain, int index) throws IOException {
+        Record record = chain.get(index);
+        switch (record.kind) {
+            case DELTA:
+                return applyDelta(linesAt(chain, index - 1), snapshotStore.readEntry(record.key));
+            case REVERSE:
+                return applyDelta(linesAt(chain, index + 1), snapshotStore.readEntry(record.key));
+            default:
+                return toLineList(snapshotStore.readEntry(record.key));
+        }
+    }
+
+    // 二分查找 timestamp 时刻（含）之前的最后一条记录
+    private static int findRecord(List<Record> chain, long timestamp) {
+        int low = 0;
+        int high = chain.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chain.get(mid).timestamp <= timestamp) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // index 之前连续的反向增量个数
+    private static int reverseLength(List<Record> chain, int index) {
+        int length = 0;
+        for (int i = index - 1; i >= 0 && chain.get(i).kind == REVERSE; i--) {
+            length++;
+        }
+        return length;
+    }
+
+    // 最后一个关键帧之后的增量个数
+    private static int chainLength(List<Record> chain) {
+        int length = 0;
+        for (int i = chain.size() - 1; i >= 0 && chain.get(i).kind == DELTA; i--) {
+            length++;
+        }
+        return length;
+    }
+
+    // 可以计算行级增量的内容：不是二进制，也不超过按块保存的大小
+    private static boolean isLineContent(byte[] content) {
+        return content.length <= SnapshotStore.CHUNK_THRESHOLD && !SnapshotStore.isBinary(content);
+    }
+
+    // 按行拆分并保留每行的换行符。按 ISO_8859_1 解码，每个字符对应一个字节，
+    // 不是 UTF-8 的文本（GBK、Latin-1 或夹杂的无效字节）拼接回去也与原内容逐字节一致
+    private static List<String> toLineList(byte[] content) {
+        String text = new String(content, StandardCharsets.ISO_8859_1);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    // 增量格式：操作个数，然后每个操作是 (起始行, 删除行数, 插入行数, 插入的各行)，每行保存原始字节
+    static byte[] encodeDelta(List<String> source, List<String> target) throws IOException {
+        Patch<String> patch = HistogramDiff.diff(source, target);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(patch.getDeltas().size());
+            for (AbstractDelta<String> delta : patch.getDeltas()) {
+                out.writeInt(delta.getSource().getPosition());
+                out.writeInt(delta.getSource().size());
+                out.writeInt(delta.getTarget().size());
+                for (String line : delta.getTarget().getLines()) {
+                    byte[] lineBytes = line.getBytes(StandardCharsets.ISO_8859_1);
+                    out.writeInt(lineBytes.length);
+                    out.write(lineBytes);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<String> applyDelta(List<String> source, byte[] delta) throws IOException {
+        List<String> result = new ArrayList<>(source.size());
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta))) {
+            int operations = in.readInt();
+            int sourceIndex = 0;
+            for (int i = 0; i < operations; i++) {
+                int position = in.readInt();
+                int deleted = in.readInt();
+                int inserted = in.readInt();
+                result.addAll(source.subList(sourceIndex, position)); // 操作之前没有变化的行
+                for (int j = 0; j < inserted; j++) {
+                    byte[] lineBytes = new byte[in.readInt()];
+                    in.readFully(lineBytes);
+                    result.add(new String(lineBytes, StandardCharsets.ISO_8859_1));
+                }
+                sourceIndex = position + deleted;
+            }
+            result.addAll(source.subList(sourceIndex, source.size()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+package com.qiqv.demo3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+//
+// 这个类是一个版本的文件索引：相对路径 -> (大小, 修改时间, 内容哈希)，
+// 与版本清单一起保存在压缩包中，判断文件是否属于该版本只需要一次哈希查找
+//
+public class VersionIndex {
+    public static class Entry {
+        public final String hash;  // 内容哈希
+        public final long size;    // 文件大小（字节）
+        public final long mtime;   // 文件修改时间
+
+        public Entry(String hash, long size, long mtime) {
+            this.hash = hash;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public void put(String relativePath, Entry entry) {
+        entries.put(relativePath, entry);
+    }
+
+    public Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    public boolean contains(String relativePath) {
+        return entries.containsKey(relativePath);
+    }
+
+    public Set<String> paths() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // 判断某个目录下是否有属于该版本的文件（用于目录删除、移动事件）
+    public boolean hasEntriesUnder(String relativeDirectory) {
+        String prefix = relativeDirectory + "/";
+        for (String path : entries.keySet()) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 序列化为清单文本，每行 "哈希 大小 修改时间 相对路径"
+    public byte[] toBytes() {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            content.append(value.hash).append(' ').append(value.size).append(' ')
+                    .append(value.mtime).append(' ').append(entry.getKey()).append('\n');
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 解析清单文本，每行 "哈希 大小 修改时间 相对路径"，格式不对的行忽略
+    public static VersionIndex parse(byte[] content) throws IOException {
+        VersionIndex index = new VersionIndex();
+        for (String line : SnapshotStore.toLines(content)) {
+            String[] parts = line.split(" ", 4);
+            if (parts.length != 4) {
+                continue;
+            }
+            try {
+                index.put(parts[3], new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+            } catch (NumberFormatException e) {
+                // 写了一半的行直接忽略
+            }
+        }
+        return index;
+    }
+}
@@ -1,40 +1,51 @@
 package com.qiqv.demo3;
 
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.Alarm;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import com.github.difflib.UnifiedDiffUtils;
-import com.github.difflib.DiffUtils;
-import com.github.difflib.patch.Patch;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VersionManager {
+    private static final int STORE_BATCH_SIZE = 256; // 保存整个项目时每批写入压缩包的文件数
+    private static final long STORE_BATCH_BYTES = 16L * 1024 * 1024; // 每批读入内存的内容最多这么多字节
     private final Project project;
     private final List<VirtualFile> savedFiles = new ArrayList<>(); // 用于保存项目中所有文件
-    private final Alarm alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD); // 定时任务执行器
+    private CaptureScheduler scheduler; // 决定什么时候保存一轮
     private boolean saveWholeFiles = true; // 标记是否保存整个项目文件
     private boolean isBaseSave = false; // 标记初始版本是否保存
-    private boolean tryNewSave = false; // 标记是否尝试重新保存base版本
-    private boolean hasDeleteFile = false; // 标记是否删除文件
+    private final Map<String, VirtualFile> dirtyFiles = new ConcurrentHashMap<>(); // 上一轮之后内容被修改的文件
+    private final Set<String> createdPaths = ConcurrentHashMap.newKeySet(); // 上一轮之后新建、移入的路径
+    private final Set<String> deletedPaths = ConcurrentHashMap.newKeySet(); // 上一轮之后删除、移出的路径
     private VirtualFile snapshotDirectory; // 记录snapshot文件夹位置
     private VirtualFile rootFileDirectory; // 记录根文件位置
     private String baseVersionDirectory; // 记录base版本位置
-    private VirtualFile baseVersionPath; // 记录base版本路径
-    private VirtualFile timeStampedFolder; // 本轮的时间戳文件夹位置
+    private VersionIndex baseIndex; // base版本的文件索引：相对路径 -> 大小、修改时间、内容哈希
+    private SnapshotStore snapshotStore; // snapshot 中按内容寻址的对象库
+    private CapturePipeline capturePipeline; // 读取、对比、提交 diff 的并行流水线
+    private final FingerprintCache fingerprints = new FingerprintCache(); // 每个文件上一次保存时的指纹
+    private volatile IgnoreRules ignoreRules; // 忽略规则，每次保存整个项目时重新加载
+    private volatile boolean ignoreRulesChanged = false; // 规则文件或 IDE 的 Excluded 目录发生变化
 
     public VersionManager(Project project) {
         this.project = project;
@@ -44,269 +55,484 @@ public class VersionManager {
         return project;
     }
 
-    public void setHasDeleteFile(boolean tag) {
-        this.hasDeleteFile = tag;
+    // 由 MyFileListener 调用，记录被删除或移出的路径
+    public void addDeletedPath(String path) {
+        deletedPaths.add(path);
+        noteActivity();
+    }
+
+    // 由 MyFileListener 调用，记录新建或移入的路径
+    public void addCreatedPath(String path) {
+        createdPaths.add(path);
+        noteActivity();
     }
 
-    // 开始定时保存任务
-    public void startAutoSave(long intervalInSeconds) {
-        alarm.addRequest(this::saveEntireProject, intervalInSeconds * 1000); // 间隔以毫秒为单位
+    // 由 MyFileListener 调用，记录内容发生变化的文件
+    public void addDirtyFile(VirtualFile file) {
+        dirtyFiles.put(file.getPath(), file);
+        noteActivity();
+    }
+
+    // 由 MyFileListener 调用，编辑器中的文档被修改（还没有写入磁盘）
+    public void noteActivity() {
+        CaptureScheduler current = scheduler;
+        if (current != null) {
+            current.activity();
+        }
+    }
+
+    // 由 MyFileListener 调用，.gitignore、.versionignore 或 IDE 的 Excluded 目录变化后，
+    // 受影响的文件集合随之变化，下一轮按新规则重新保存整个项目
+    public void markIgnoreRulesChanged() {
+        ignoreRulesChanged = true;
+        noteActivity();
+    }
+
+    // 项目根目录下的相对路径是否被忽略，路径所在的任何一级目录被忽略时同样返回 true
+    public boolean isIgnored(String relativePath, boolean directory) {
+        IgnoreRules rules = ignoreRules;
+        if (rules == null) {
+            VirtualFile projectRoot = project.getBaseDir();
+            if (projectRoot == null) {
+                return false;
+            }
+            rules = loadIgnoreRules(projectRoot);
+            ignoreRules = rules;
+        }
+        return rules.isIgnored(relativePath, directory);
+    }
+
+    // 开始自动保存，参数读取 snapshot/pack/scheduler.conf
+    public void startAutoSave() {
+        String basePath = project.getBasePath();
+        CaptureScheduler.Settings settings = basePath != null
+                ? CaptureScheduler.Settings.load(Paths.get(basePath, "snapshot"))
+                : new CaptureScheduler.Settings();
+        scheduler = new CaptureScheduler(project, this, settings);
+        scheduler.start();
     }
 
     // 停止自动保存任务
     public void stopAutoSave() {
-        alarm.cancelAllRequests(); // 取消所有定时任务
+        if (scheduler != null) {
+            scheduler.stop();
+            scheduler = null;
+        }
+    }
+
+    // 是否还有没处理的变化：首次或重新保存整个项目、变更日志中积压的路径、忽略规则变化
+    public boolean hasPendingChanges() {
+        return saveWholeFiles || ignoreRulesChanged || backlog() > 0;
+    }
+
+    // 把编辑器中未保存的修改写入磁盘，只有存在未保存的文档时才切换到 EDT
+    public void saveDocuments() {
+        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+        if (fileDocumentManager.getUnsavedDocuments().length == 0) {
+            return;
+        }
+        try {
+            ApplicationManager.getApplication().invokeAndWait(fileDocumentManager::saveAllDocuments);
+            System.out.println("保存成功"); // 打印日志，表示保存成功
+        } catch (Exception e) {
+            System.err.println("保存失败：" + e.getMessage()); // 捕获异常，表示保存失败
+        }
     }
 
-    // 点击插件时保存整个项目，并在 UI 中显示内容
+    // 保存一轮：首次保存整个项目，之后只对比变更日志中的脏文件，由 CaptureScheduler 调用
     public void saveEntireProject() {
         VirtualFile projectRoot = project.getBaseDir(); // 获取项目根目录
         rootFileDirectory = projectRoot;
         if (projectRoot != null) {
             // 在首次保存时直接保存所有文件
             if (saveWholeFiles) {
-                saveAllFilesInDirectory(projectRoot); // 递归保存所有文件
+                ignoreRules = loadIgnoreRules(projectRoot);
+                ignoreRulesChanged = false;
+                savedFiles.clear();
+                ApplicationManager.getApplication().runReadAction(() -> saveAllFilesInDirectory(projectRoot)); // 递归保存所有文件
                 saveWholeFiles = false; // 更新标记为
-                ApplicationManager.getApplication().invokeLater(() -> {
-                    ApplicationManager.getApplication().runWriteAction(() -> createSnapshotFolder(projectRoot)); // 在 EDT 中执行写操作
-                });
+                VirtualFile snapshotFolder = createSnapshotFolder(projectRoot);
+                if (snapshotFolder != null) {
+                    // 计算哈希、压缩和写盘都在后台线程池中进行，不占用 EDT 和写锁
+                    CompletableFuture.runAsync(() -> storeSnapshot(snapshotFolder), CapturePipeline.getPool()).join();
+                }
             } else {
-                // 后续保存时对比并生成差异文件
-                System.out.println("\n");
+                // 后续保存时只对比变更日志中的脏文件
                 generateDiffFiles(projectRoot);
-
             }
-            ApplicationManager.getApplication().invokeLater(() -> {
-                try {
-                    FileDocumentManager.getInstance().saveAllDocuments();  // 保存所有未保存的文件
-                    System.out.println("保存成功"); // 打印日志，表示保存成功
-                } catch (Exception e) {
-                    System.err.println("保存失败：" + e.getMessage()); // 捕获异常，表示保存失败
-                }
-            });
-
         } else {
             System.out.println("无法找到项目根目录");
         }
-        // 再次调度下一次保存任务
-        startAutoSave(5); // 继续下一个定时任务，间隔5秒
     }
 
     // 递归遍历并保存目录下的所有文件
     private void saveAllFilesInDirectory(VirtualFile directory) {
         for (VirtualFile file : directory.getChildren()) {
-            if (!file.isDirectory() && !file.getName().equals("snapshot")) {
+            if (ignoreRules.isIgnoredEntry(getRelativePath(file.getPath()), file.isDirectory())) {
+                continue; // 被忽略的目录整个跳过，不进入其中
+            }
+            if (!file.isDirectory()) {
                 savedFiles.add(file); // 保存文件
-            } else if (file.isDirectory() && !file.getName().equals("snapshot")) {
-                saveAllFilesInDirectory(file); // 如果是目录且不是 snapshot，递归遍历
+            } else {
+                saveAllFilesInDirectory(file); // 如果是目录，递归遍历
             }
         }
     }
 
-    // 在项目根目录下创建 snapshot 文件夹，并在其中创建一个以当前时间命名的文件夹保存当前文件
-    private void createSnapshotFolder(VirtualFile rootDirectory) {
-        try {
-            // 检查 snapshot 文件夹是否存在，不存在则创建
-            VirtualFile snapshotFolder = rootDirectory.findChild("snapshot");
-            if (snapshotFolder == null) {
-                snapshotFolder = rootDirectory.createChildDirectory(this, "snapshot");
-                VirtualFile versionFolder = snapshotFolder.createChildDirectory(this, "version");
-                VirtualFile diffFolder = snapshotFolder.createChildDirectory(this, "diff");
+    // 编译项目的忽略规则，IDE 中各模块标记为 Excluded 的目录一并加入
+    private IgnoreRules loadIgnoreRules(VirtualFile projectRoot) {
+        String rootPath = projectRoot.getPath();
+        List<String> excludedRoots = new ArrayList<>();
+        ApplicationManager.getApplication().runReadAction(() -> {
+            for (Module module : ModuleManager.getInstance(project).getModules()) {
+                for (VirtualFile excludeRoot : ModuleRootManager.getInstance(module).getExcludeRoots()) {
+                    if (excludeRoot.getPath().startsWith(rootPath + "/")) {
+                        excludedRoots.add(excludeRoot.getPath().substring(rootPath.length() + 1));
+                    }
+                }
             }
-            snapshotDirectory = snapshotFolder;
+        });
+        return new IgnoreRules(Paths.get(rootPath), excludedRoots);
+    }
 
-            // 以当前时间命名创建一个新文件夹
-            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            String folderName = "Version_" + timeStamp;  // 添加 "Version" 前缀
-            VirtualFile versionFolder = snapshotDirectory.findChild("version");// 10.15
-            VirtualFile timeStampedFolder = versionFolder.createChildDirectory(this, folderName);//10.15
-            //VirtualFile timeStampedFolder = snapshotFolder.createChildDirectory(this, folderName);
-
-            // 复制根目录下的所有文件夹到新的时间文件夹中
-            for (VirtualFile file : rootDirectory.getChildren()) {
-                if (file.isDirectory() && !file.getName().equals("snapshot")) {
-                    copyDirectory(file, timeStampedFolder);
-                } else if (!file.isDirectory()) {
-                    copyFile(file, timeStampedFolder);
+    // 在项目根目录下创建 snapshot 文件夹，只有这一步需要写操作，在 EDT 中执行
+    private VirtualFile createSnapshotFolder(VirtualFile rootDirectory) {
+        VirtualFile[] created = new VirtualFile[1];
+        ApplicationManager.getApplication().invokeAndWait(() -> ApplicationManager.getApplication().runWriteAction(() -> {
+            try {
+                // 检查 snapshot 文件夹是否存在，不存在则创建
+                VirtualFile snapshotFolder = rootDirectory.findChild("snapshot");
+                if (snapshotFolder == null) {
+                    snapshotFolder = rootDirectory.createChildDirectory(this, "snapshot");
                 }
+                created[0] = snapshotFolder;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("无法创建 snapshot 文件夹");
+            }
+        }));
+        if (created[0] == null) {
+            saveWholeFiles = true; // 下一轮重新保存整个项目
+        }
+        return created[0];
+    }
+
+    // 把当前文件存入对象库、生成一个以当前时间命名的版本清单，在后台线程中执行
+    private void storeSnapshot(VirtualFile snapshotFolder) {
+        try {
+            snapshotDirectory = snapshotFolder;
+            snapshotStore = SnapshotStore.forRoot(Paths.get(snapshotFolder.getPath()));
+            capturePipeline = new CapturePipeline(snapshotStore, LargeFiles.Settings.load(snapshotStore.getSnapshotRoot()));
+            snapshotStore.getSearchIndex(); // 之后每一轮提交都会更新全文索引和行来源索引
+            snapshotStore.getLineProvenance();
+            if (!snapshotStore.tryBeginCapture()) {
+                saveWholeFiles = true; // 正在后台整理历史，下一轮再保存整个项目
+                return;
+            }
+            try {
+                storeVersion(snapshotFolder);
+            } finally {
+                snapshotStore.endCapture();
             }
         } catch (IOException e) {
             e.printStackTrace();
-            System.out.println("无法创建 snapshot 文件夹或复制文件");
+            System.out.println("无法保存文件");
         }
     }
 
-    // 递归复制文件夹及其内容
-    private void copyDirectory(VirtualFile source, VirtualFile targetDirectory) throws IOException {
-        if (source.getName().equals("snapshot")) {
-            return; // 跳过 snapshot 文件夹
-        }
+    // 把当前文件存入对象库，生成一个以当前时间命名的版本清单
+    private void storeVersion(VirtualFile snapshotFolder) throws IOException {
+        // 以当前时间命名这个版本
+        Date now = new Date();
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(now);
+        String versionName = "Version_" + timeStamp;  // 添加 "Version" 前缀
 
-        VirtualFile newDir = targetDirectory.createChildDirectory(this, source.getName());
-        for (VirtualFile child : source.getChildren()) {
-            if (child.isDirectory()) {
-                copyDirectory(child, newDir); // 递归复制子目录
-            } else {
-                copyFile(child, newDir); // 复制文件
+        Metrics.Cycle cycle = Metrics.beginCycle("version", backlog());
+        long bytesWritten = snapshotStore.getBytesWritten();
+        long start = System.nanoTime();
+        // 把根目录下的所有文件存入对象库，只有新内容才会真正写盘
+        VersionIndex index = new VersionIndex();
+        Map<String, VirtualFile> pendingFiles = new LinkedHashMap<>();
+        // 对象、版本清单和文件历史要么全部保存，要么全部回滚，中途崩溃时下次打开自动回滚
+        snapshotStore.beginTransaction("version " + versionName);
+        try {
+            for (VirtualFile file : savedFiles) {
+                storeFile(file, pendingFiles, index, cycle); // 被忽略的文件和目录（包括 snapshot）已经在遍历时跳过
             }
+            flushPendingFiles(pendingFiles, index, cycle);
+            long writeStart = System.nanoTime();
+            snapshotStore.writeManifest(versionName, index);
+            snapshotStore.getHistory().recordVersion(now.getTime(), index); // 文件历史中记录这个版本
+            snapshotStore.commitTransaction();
+            cycle.writeNanos += System.nanoTime() - writeStart;
+        } catch (IOException | RuntimeException e) {
+            snapshotStore.abortTransaction();
+            saveWholeFiles = true; // 这个版本没有保存，下一轮重新保存整个项目
+            throw e;
         }
+        // 遍历目录的时间：总耗时去掉读取和写入
+        cycle.scanNanos = System.nanoTime() - start - cycle.readNanos - cycle.writeNanos;
+        cycle.filesChanged = index.size();
+        cycle.bytesWritten = snapshotStore.getBytesWritten() - bytesWritten;
+        Metrics.endCycle(cycle);
+        snapshotFolder.refresh(true, true); // 直接通过 NIO 写入，统一刷新一次 VFS
     }
 
-    // 复制单个文件
-    private void copyFile(VirtualFile file, VirtualFile targetDirectory) throws IOException {
-        VirtualFile newFile = targetDirectory.createChildData(this, file.getName());
-        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
-        Document document = fileDocumentManager.getDocument(file);
-
-        if (document != null) {
-            String content = document.getText();
-            FileUtil.writeToFile(new java.io.File(newFile.getPath()), content);
+    // 收集单个文件，攒够一批后一次写入压缩包
+    private void storeFile(VirtualFile file, Map<String, VirtualFile> pendingFiles, VersionIndex index, Metrics.Cycle cycle) throws IOException {
+        pendingFiles.put(getRelativePath(file.getPath()), file);
+        if (pendingFiles.size() >= STORE_BATCH_SIZE) {
+            flushPendingFiles(pendingFiles, index, cycle);
         }
     }
 
-    public boolean findFileInDirectory(VirtualFile directory, String targetFileName) {
-        // 遍历当前目录下的所有文件和子目录
-        for (VirtualFile file : directory.getChildren()) {
-            if (file.getName().equals(targetFileName)) {
-                return true;
-            }
-            if (file.isDirectory()) {
-                // 如果是子目录，递归调用该函数
-                boolean result = findFileInDirectory(file, targetFileName);
-                if (result) {
-                    return true; // 如果在子目录中找到文件，返回 1
+    // 把一批文件的内容写入压缩包，并在索引中记录 相对路径 -> 大小、修改时间、内容哈希。
+    // 编辑器中的文件取 Document 的内容（包括未保存的修改）；二进制文件和超出编辑器大小限制的文件没有 Document，
+    // 直接从磁盘读取。超过 CHUNK_THRESHOLD 的文件不生成完整的字节数组：没有修改的从磁盘按区域映射读取，
+    // 有未保存修改的逐段编码，都边读边按块保存（计入读取耗时）。读入内存的内容攒够 STORE_BATCH_BYTES 就先写入一次。
+    // 只有取 Document 内容的这一步在读操作中进行，取到的是不可变的文本，之后的编码、哈希和写入不持有读锁
+    private void flushPendingFiles(Map<String, VirtualFile> pendingFiles, VersionIndex index, Metrics.Cycle cycle) throws IOException {
+        long readStart = System.nanoTime();
+        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+        Map<String, CharSequence> texts = new HashMap<>(); // 相对路径 -> Document 的内容，从磁盘读取的文件没有
+        ApplicationManager.getApplication().runReadAction(() -> {
+            for (Map.Entry<String, VirtualFile> pending : pendingFiles.entrySet()) {
+                VirtualFile file = pending.getValue();
+                Document document = fileDocumentManager.getDocument(file);
+                if (document != null && (document.getTextLength() <= SnapshotStore.CHUNK_THRESHOLD || fileDocumentManager.isFileModified(file))) {
+                    texts.put(pending.getKey(), document.getImmutableCharSequence());
                 }
-            } else if (file.getName().equals(targetFileName)) {
-                // 如果文件名匹配，返回 1
-                return false;
+            }
+        });
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        long contentBytes = 0;
+        for (Map.Entry<String, VirtualFile> pending : pendingFiles.entrySet()) {
+            VirtualFile file = pending.getValue();
+            CharSequence text = texts.get(pending.getKey());
+            if (text == null) {
+                Path path = Paths.get(file.getPath());
+                long size = Files.size(path);
+                index.put(pending.getKey(), new VersionIndex.Entry(snapshotStore.putFile(path), size, file.getTimeStamp()));
+                cycle.bytesRead += size;
+                continue;
+            }
+            if (text.length() > SnapshotStore.CHUNK_THRESHOLD) {
+                LargeFiles.EncodingChannel channel = new LargeFiles.EncodingChannel(text);
+                String hash = snapshotStore.putChannel(channel);
+                index.put(pending.getKey(), new VersionIndex.Entry(hash, channel.getBytes(), file.getTimeStamp()));
+                cycle.bytesRead += channel.getBytes();
+                continue;
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            contents.put(pending.getKey(), bytes);
+            cycle.bytesRead += bytes.length;
+            contentBytes += bytes.length;
+            if (contentBytes >= STORE_BATCH_BYTES) {
+                long writeStart = System.nanoTime();
+                cycle.readNanos += writeStart - readStart;
+                writeContents(contents, pendingFiles, index);
+                readStart = System.nanoTime();
+                cycle.writeNanos += readStart - writeStart;
+                contentBytes = 0;
             }
         }
-        // 如果遍历所有文件和子目录都未找到，返回 0
-        return false;
+        cycle.filesScanned += pendingFiles.size();
+        long writeStart = System.nanoTime();
+        cycle.readNanos += writeStart - readStart;
+        writeContents(contents, pendingFiles, index);
+        cycle.writeNanos += System.nanoTime() - writeStart;
+        pendingFiles.clear();
     }
 
-    // 生成文件差异并保存为 unified diff 格式
+    // 写入读入内存的内容，并在索引中记录
+    private void writeContents(Map<String, byte[]> contents, Map<String, VirtualFile> pendingFiles, VersionIndex index) throws IOException {
+        Map<String, String> hashes = snapshotStore.putBlobs(contents);
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            String relativePath = content.getKey();
+            index.put(relativePath, new VersionIndex.Entry(hashes.get(relativePath),
+                    content.getValue().length, pendingFiles.get(relativePath).getTimeStamp()));
+        }
+        contents.clear();
+    }
+
+    // 生成文件差异并保存为 unified diff 格式，只处理变更日志中记录的脏文件
     private void generateDiffFiles(VirtualFile rootDirectory) {
-        boolean echoTag = true; // 用于标记每一次新的遍历是否开始
+        if (snapshotStore != null && ignoreRulesChanged) {
+            resetBaseVersion(); // 规则变化后被管理的文件集合不同，按新规则重新保存整个项目
+            return;
+        }
+        if (snapshotStore == null || (dirtyFiles.isEmpty() && createdPaths.isEmpty() && deletedPaths.isEmpty())) {
+            return; // 本轮没有任何文件变化（或首个版本尚未保存），直接跳过
+        }
+        if (!snapshotStore.tryBeginCapture()) {
+            return; // 正在后台整理历史，脏文件留到下一轮
+        }
+        Metrics.Cycle cycle = Metrics.beginCycle("diff", backlog());
         try {
-            for (VirtualFile file : rootDirectory.getChildren()) {
-                // 对于系统文件或者snapshot文件直接continue
-                if(file.getName().equals("snapshot") || file.getName().equals(".gitignore") || file.getName().equals(".idea") || file.getName().equals("compare")) {
-                    continue;
-                }
-                // 用子序列来确定相对位置，方便后面确定originalFilePath
-                String relativePath = file.getPath().substring(rootFileDirectory.getPath().length() + 1);
-                String originalFilePath = baseVersionDirectory + "/" + relativePath; // 原始文件路径
-                String currentFilePath = file.getPath(); // 当前文件路径
-                // 判断是否存在删除文件的情况，以及判断当前文件是否为新建的
-                // 当文件存在删除的时候直接执行else语句，当前文件有新建的时候执行else语句，其余情况执行if语句
-                if (  (hasDeleteFile==false) && (!isBaseSave || findFileInDirectory(baseVersionPath, file.getName())==true)   ) {
-                    // 将整个项目进行保存作为baseVersion版本
-                    if (!isBaseSave) {
-                        VirtualFile versionFolder = snapshotDirectory.findChild("version");
-                        // 获取snapshot文件夹内的所有文件
-                        VirtualFile[] snapshotFiles = versionFolder.getChildren();
-                        // 现在获取baseVersion的directory, baseVersion就是文件夹最后一个文件
-                        VirtualFile lastSnapshotFile = snapshotFiles.length > 0 ? snapshotFiles[snapshotFiles.length - 1] : null;
-                        baseVersionDirectory = lastSnapshotFile.getPath();
-                        baseVersionPath = lastSnapshotFile;
-                        isBaseSave = true;
-                    }
-                    // 对file进行判断，判断file是目录还是文件。如果是目录则遍历，不是则进行版本对比
-                    if (file.isDirectory() ) {
-                        generateDiffFiles(file); // 递归遍历子目录
-                        if (tryNewSave) {
-                            tryNewSave = false;
-                            return;
-                        }
-                    } else if (!file.isDirectory() ) {
-                        if (Files.exists(Paths.get(originalFilePath))) {
-                            // 获得相同文件之前版本和当前版本的内容
-                            List<String> originalLines = Files.readAllLines(Paths.get(originalFilePath));
-                            List<String> currentLines = Files.readAllLines(Paths.get(currentFilePath));
-                            // 获得当前版本和base版本的diff内容
-                            Patch<String> patch = DiffUtils.diff(originalLines, currentLines);
-                            if (!patch.getDeltas().isEmpty()) {
-                                // 如果有变化，生成 unified diff 文件
-                                String diffFileName = file.getName() + ".diff";
-                                String pureTimeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-                                String timeStamp = "diff_" + pureTimeStamp;
-                                // 由于labmad中不能修改变量，此处使用AtomicBoolean来替代echoTag
-                                AtomicBoolean finalTag = new AtomicBoolean(echoTag); // 替代finalTag
-                                // 生成差异文件
-                                WriteCommandAction.runWriteCommandAction(project, () -> {
-                                    try {
-                                        if (!snapshotDirectory.exists()) {
-                                            System.out.println("snapshotDirectory 不存在: " + snapshotDirectory);
-                                        } else {
-                                            if (finalTag.get()) {  // 使用finalTag.get()检查其值
-                                                VirtualFile diffFolder = snapshotDirectory.findChild("diff");
-                                                timeStampedFolder = diffFolder.createChildDirectory(this, timeStamp);
-                                                finalTag.set(false);  // 修改finalTag的值
-                                            }
-                                            VirtualFile diffFile = timeStampedFolder.createChildData(this, diffFileName);
-                                            String diffContent = generateDiff(originalFilePath, currentFilePath, originalLines, patch);
-                                            FileUtil.writeToFile(new java.io.File(diffFile.getPath()), diffContent);
-                                            System.out.println("生成差异文件: " + diffFile.getPath());
-                                        }
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                });
-                                // 由lumbda当中的finaltag确定是否修改echotag的值
-                                if(!finalTag.get()) {
-                                    echoTag = false; // 第一个diff生成后，时间戳文件夹固定
-                                }
-                            }
-                        }
-                    }
+            long scanStart = System.nanoTime();
+            // 将整个项目进行保存作为baseVersion版本
+            if (!isBaseSave) {
+                // baseVersion就是最新的版本清单
+                String baseVersionName = snapshotStore.latestVersion();
+                if (baseVersionName == null) {
+                    return;
                 }
-                // 检测到当前项目有新增文件或者文件夹，终止当前生成diff文件，生成新的baseversion
-                else {
-                    WriteCommandAction.runWriteCommandAction(project, () -> {
-                        //删除当前的timeStampedFolder，终止当前，重置参数
-                        try {
-                            if (timeStampedFolder != null) {
-                                timeStampedFolder.delete(this); // 删除 timeStampedFolder 文件夹
-                                System.out.println("删除文件夹: " + timeStampedFolder.getPath());
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            System.out.println("无法删除文件夹: " + timeStampedFolder.getPath());
-                        }
-                    });
-                    // 重置相关的参数
-                    isBaseSave = false;
-                    baseVersionDirectory = null;
-                    echoTag = false;
-                    tryNewSave = true;
-                    saveWholeFiles = true;
-                    hasDeleteFile = false;
+                baseVersionDirectory = snapshotDirectory.getPath() + "/version/" + baseVersionName;
+                baseIndex = snapshotStore.readManifest(baseVersionName);
+                fingerprints.seed(baseIndex);
+                isBaseSave = true;
+            }
+            // 新增或删除了base版本中的文件时，终止当前生成diff文件，生成新的baseversion
+            if (hasStructureChange()) {
+                resetBaseVersion();
+                return;
+            }
+            List<VirtualFile> changedFiles = drainDirtyFiles();
+            // 先确认所有脏文件都在base版本中，否则说明有新文件，直接重新生成base版本，避免写出半轮的diff
+            for (VirtualFile file : changedFiles) {
+                if (!baseIndex.contains(getRelativePath(file.getPath()))) {
+                    resetBaseVersion();
                     return;
                 }
             }
+            cycle.filesScanned = changedFiles.size();
+            List<CapturePipeline.Task> tasks = new ArrayList<>();
+            Map<String, FingerprintCache.Fingerprint> stats = new LinkedHashMap<>(); // 本轮读取前的文件指纹
+            int skippedFiles = 0;
+            long skippedBytes = 0;
+            for (VirtualFile file : changedFiles) {
+                // 用子序列来确定相对位置，方便后面确定originalFilePath
+                String relativePath = getRelativePath(file.getPath());
+                Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+                long documentStamp = document != null ? document.getModificationStamp() : FingerprintCache.NO_DOCUMENT;
+                // 指纹与上次保存时相同，不读取也不对比
+                if (fingerprints.isUnchanged(relativePath, file.getLength(), file.getTimeStamp(), documentStamp)) {
+                    skippedFiles++;
+                    skippedBytes += file.getLength();
+                    continue;
+                }
+                stats.put(relativePath, new FingerprintCache.Fingerprint(file.getLength(), file.getTimeStamp(), documentStamp, null));
+                String originalFilePath = baseVersionDirectory + "/" + relativePath; // 原始文件路径（位于版本清单中）
+                tasks.add(new CapturePipeline.Task(file.getName(), relativePath, originalFilePath, file.getPath(),
+                        baseIndex.get(relativePath).hash, fingerprints.getHash(relativePath)));
+            }
+            cycle.scanNanos = System.nanoTime() - scanStart;
+            // 并行读取和对比，本轮所有差异文件一次追加到压缩包中
+            Date now = new Date();
+            String timeStamp = "diff_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(now);
+            long bytesWritten = snapshotStore.getBytesWritten();
+            CapturePipeline.Result result;
+            // 本轮的差异和文件历史要么全部保存，要么全部回滚
+            snapshotStore.beginTransaction(timeStamp);
+            try {
+                result = capturePipeline.run(tasks, timeStamp, now.getTime());
+                cycle.bytesWritten = snapshotStore.getBytesWritten() - bytesWritten;
+                snapshotStore.commitTransaction();
+            } catch (IOException | RuntimeException e) {
+                snapshotStore.abortTransaction();
+                resetBaseVersion(); // 本轮的脏文件已经取出，下一轮重新保存整个项目
+                throw e;
+            }
+            for (Map.Entry<String, String> hash : result.hashes.entrySet()) {
+                FingerprintCache.Fingerprint stat = stats.get(hash.getKey());
+                fingerprints.update(hash.getKey(), new FingerprintCache.Fingerprint(stat.length, stat.timeStamp, stat.documentStamp, hash.getValue()));
+            }
+            skippedFiles += result.skippedFiles;
+            skippedBytes += result.skippedBytes;
+            if (!result.diffFileNames.isEmpty()) {
+                System.out.println("生成差异文件: " + timeStamp + " " + result.diffFileNames);
+            }
+            cycle.readNanos = result.readNanos;
+            cycle.diffNanos = result.diffNanos;
+            cycle.writeNanos = result.writeNanos;
+            cycle.bytesRead = result.bytesRead;
+            cycle.filesSkipped = skippedFiles;
+            cycle.bytesSkipped = skippedBytes;
+            cycle.filesChanged = result.hashes.size() - result.skippedFiles;
+            Metrics.endCycle(cycle);
         } catch (IOException e) {
             e.printStackTrace();
             System.out.println("无法生成差异文件");
+        } finally {
+            snapshotStore.endCapture();
         }
+        Compactor.scheduleIfDue(snapshotStore); // 按保留策略在后台整理历史
     }
 
+    // 重置相关的参数，下一轮重新保存整个项目作为新的base版本
+    private void resetBaseVersion() {
+        isBaseSave = false;
+        baseVersionDirectory = null;
+        baseIndex = null;
+        fingerprints.clear();
+        saveWholeFiles = true;
+        createdPaths.clear();
+        deletedPaths.clear();
+        dirtyFiles.clear(); // 新的base版本已经包含这些修改
+    }
 
-    // 生成 unified diff 格式的字符串
-    private String generateDiff(String originalFileName,  String currentFileName, List<String> originalLines, Patch<String> patch) {
-        // 设置 diff 文件的头信息，包含旧文件名和新文件名
-        String diffHeader = originalFileName + " -> " + currentFileName;
+    // 根据base版本的索引精确判断新建、删除的路径是否改变了项目结构
+    private boolean hasStructureChange() {
+        boolean changed = false;
+        for (String path : new ArrayList<>(deletedPaths)) {
+            deletedPaths.remove(path);
+            String relativePath = getRelativePath(path);
+            if (Files.exists(Paths.get(path))) {
+                continue; // 删除后又在原位置重建，按内容修改处理（见下面的新建路径）
+            }
+            if (baseIndex.contains(relativePath) || baseIndex.hasEntriesUnder(relativePath)) {
+                changed = true;
+            }
+        }
+        for (String path : new ArrayList<>(createdPaths)) {
+            createdPaths.remove(path);
+            VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
+            if (file == null || !file.isValid()) {
+                continue; // 临时文件，已经被删除
+            }
+            if (file.isDirectory()) {
+                changed |= hasUntrackedFile(file);
+            } else if (baseIndex.contains(getRelativePath(path))) {
+                addDirtyFile(file); // base版本中已有的路径，只是内容可能变化
+            } else {
+                changed = true;
+            }
+        }
+        return changed;
+    }
 
-        // 使用 DiffUtils 来生成统一 diff
-        List<String> unifiedDiff = UnifiedDiffUtils.generateUnifiedDiff(
-                originalFileName,  // 原始文件名
-                currentFileName,   // 当前文件名
-                originalLines,     // 原始文件内容
-                patch,             // Patch 对象
-                1                  // 上下文行数，
-        );
+    // 判断新建或移入的目录下是否有不在base版本中的文件
+    private boolean hasUntrackedFile(VirtualFile directory) {
+        for (VirtualFile child : directory.getChildren()) {
+            if (ignoreRules.isIgnoredEntry(getRelativePath(child.getPath()), child.isDirectory())) {
+                continue;
+            }
+            if (child.isDirectory() ? hasUntrackedFile(child) : !baseIndex.contains(getRelativePath(child.getPath()))) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // 将生成的 diff 列表合并为单个字符串
-        return String.join("\n", unifiedDiff);
+    // 项目根目录下的相对路径
+    private String getRelativePath(String path) {
+        return path.substring(rootFileDirectory.getPath().length() + 1);
+    }
+
+    // 变更日志中等待处理的路径数
+    private int backlog() {
+        return dirtyFiles.size() + createdPaths.size() + deletedPaths.size();
+    }
+
+    // 取出并清空本轮的脏文件
+    private List<VirtualFile> drainDirtyFiles() {
+        List<VirtualFile> changedFiles = new ArrayList<>();
+        for (String path : new ArrayList<>(dirtyFiles.keySet())) {
+            VirtualFile file = dirtyFiles.remove(path);
+            if (file != null && file.isValid() && !file.isDirectory()) {
+                changedFiles.add(file);
+            }
+        }
+        return changedFiles;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,224 @@
+package com.qiqv.demo3;
+
+import com.github.difflib.UnifiedDiffUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//
+// 整理历史之后，每个保留下来的版本和 diff_ 文件夹都要能按原来的时刻逐字节还原，全文索引和行来源索引也不能再指向被删除的状态
+//
+public class CompactorTest {
+    private static final String[] FILES = {"a.txt", "src/b.txt", "src/c.txt"};
+
+    @TempDir
+    Path projectRoot;
+
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss");
+    private final Map<String, Map<String, String>> expected = new TreeMap<>();    // 版本名或 diff_ 文件夹名 -> 当时每个文件的内容
+    private final Map<String, Map<String, String>> baseContents = new TreeMap<>(); // 版本名 -> 版本中每个文件的内容
+
+    @Test
+    public void restoresEveryKeptCaptureAfterCompaction() throws IOException {
+        for (VersionHistory.StorageMode mode : VersionHistory.StorageMode.values()) {
+            SnapshotStore store = SnapshotStore.forRoot(projectRoot.resolve(mode.name()).resolve("snapshot"));
+            store.getHistory().setStorageMode(mode);
+            expected.clear();
+            baseContents.clear();
+            long now = simulate(store, projectRoot.resolve(mode.name()), new Random(42));
+            int foldersBefore = diffFolders(store).size();
+
+            Compactor.compact(store, RetentionPolicy.parse("1h:all,1d:1h,*:1d"), now);
+
+            TreeSet<String> kept = new TreeSet<>(store.listVersions());
+            kept.addAll(diffFolders(store));
+            assertTrue(diffFolders(store).size() < foldersBefore, "整理之后 diff_ 文件夹应该变少");
+            for (String name : kept) {
+                long timestamp = SnapshotStore.parseTimeStamp(name.substring(name.indexOf('_') + 1)) + 999;
+                for (String relativePath : FILES) {
+                    String content = expected.get(name).get(relativePath);
+                    byte[] restored = store.getHistory().reconstruct(relativePath, timestamp);
+                    if (content == null) {
+                        assertTrue(restored == null, name + " 中不应该有 " + relativePath);
+                    } else {
+                        assertArrayEquals(content.getBytes(StandardCharsets.UTF_8), restored, name + " " + relativePath);
+                    }
+                }
+            }
+            // 保留的 diff_ 文件夹中不能有已经改回 base 版本内容的文件的 diff
+            for (String key : store.listKeys("diff/")) {
+                String folder = key.split("/")[1];
+                String target = new String(store.readEntry(key), StandardCharsets.UTF_8).split("\n")[1].substring(4);
+                String relativePath = target.substring(projectRoot.resolve(mode.name()).toString().length() + 1);
+                Map<String, String> base = baseContents.get(baseVersion(folder));
+                assertNotEquals(base.get(relativePath), expected.get(folder).get(relativePath), key);
+            }
+        }
+    }
+
+    @Test
+    public void searchHitsPointAtKeptStatesAfterCompaction() throws Exception {
+        SnapshotStore store = SnapshotStore.forRoot(projectRoot.resolve("snapshot"));
+        long now = simulate(store, projectRoot, new Random(42));
+        SearchIndex index = store.getSearchIndex();
+        index.awaitIdle();
+        List<SearchIndex.Hit> before = index.search("txt");
+
+        Compactor.compact(store, RetentionPolicy.parse("1h:all,1d:1h,*:1d"), now);
+
+        VersionHistory history = store.getHistory();
+        assertTrue(before.stream().anyMatch(hit -> !history.timestamps(hit.relativePath).contains(hit.timestamp)),
+                "整理之前应该有指向将被删除的状态的结果");
+        for (SearchIndex.Hit hit : index.search("txt")) {
+            assertTrue(history.timestamps(hit.relativePath).contains(hit.timestamp), hit.relativePath + " " + hit.timestamp);
+        }
+        // 重新索引之后，与按整理后的文件历史新建的索引结果相同
+        index.awaitIdle();
+        SearchIndex rebuilt = new SearchIndex(store, projectRoot.resolve("rebuilt.dat"));
+        rebuilt.enqueueAll();
+        rebuilt.awaitIdle();
+        List<String> expectedHits = describe(rebuilt.search("txt"));
+        assertTrue(expectedHits.size() < SearchIndex.MAX_HITS);
+        assertEquals(expectedHits, describe(index.search("txt")));
+    }
+
+    @Test
+    public void lineProvenanceDropsCompactedStates() throws IOException {
+        SnapshotStore store = SnapshotStore.forRoot(projectRoot.resolve("snapshot"));
+        long now = simulate(store, projectRoot, new Random(7));
+        LineProvenance provenance = store.getLineProvenance();
+        for (String relativePath : FILES) {
+            provenance.annotate(relativePath);
+        }
+
+        Compactor.compact(store, RetentionPolicy.parse("1h:all,1d:1h,*:1d"), now);
+
+        // 与按整理后的文件历史新建的索引结果相同，每一行的时刻都是保留下来的状态
+        LineProvenance rebuilt = new LineProvenance(store, projectRoot.resolve("rebuilt.dat"));
+        for (String relativePath : FILES) {
+            long[] lines = provenance.annotate(relativePath);
+            assertArrayEquals(rebuilt.annotate(relativePath), lines, relativePath);
+            for (long timestamp : lines != null ? lines : new long[0]) {
+                assertTrue(store.getHistory().timestamps(relativePath).contains(timestamp), relativePath + " " + timestamp);
+            }
+        }
+    }
+
+    private static List<String> describe(List<SearchIndex.Hit> hits) {
+        List<String> lines = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) {
+            lines.add(hit.timestamp + " " + hit.relativePath + ":" + hit.line + (hit.added ? " +" : " -") + hit.text);
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    // 三天的保存：每 20 分钟一轮修改一两个文件（有时改回 base 版本的内容），不时保存一个新版本，返回最后的时刻
+    private long simulate(SnapshotStore store, Path root, Random random) throws IOException {
+        long start = (System.currentTimeMillis() / 1000 - 3 * 86400) * 1000;
+        long time = start;
+        Map<String, String> current = new LinkedHashMap<>();
+        current.put(FILES[0], "a\n0\n");
+        current.put(FILES[1], "b\n0\n");
+        Map<String, String> base = storeVersion(store, time, current);
+        for (int round = 1; round < 3 * 72; round++) {
+            time += 20 * 60 * 1000L;
+            if (round % 40 == 0) {
+                if (round == 80) {
+                    current.put(FILES[2], "c\n" + round + "\n"); // 新文件只能出现在新版本中
+                }
+                if (round == 160) {
+                    current.remove(FILES[0]);
+                }
+                base = storeVersion(store, time, current);
+                continue;
+            }
+            Map<String, String> diffs = new LinkedHashMap<>();
+            List<VersionHistory.Pending> pendings = new ArrayList<>();
+            for (String relativePath : new ArrayList<>(current.keySet())) {
+                if (random.nextInt(3) != 0) {
+                    continue;
+                }
+                String content = random.nextInt(4) == 0 ? base.get(relativePath) : relativePath + "\n" + round + "\n";
+                current.put(relativePath, content);
+                VersionHistory.Pending pending = store.getHistory().prepare(relativePath, time, content.getBytes(StandardCharsets.UTF_8));
+                if (pending != null) {
+                    pendings.add(pending);
+                }
+                if (!content.equals(base.get(relativePath))) {
+                    diffs.put(relativePath.replace('/', '_') + ".diff", diff(root, relativePath, base.get(relativePath), content));
+                }
+            }
+            store.getHistory().commit(pendings);
+            if (!diffs.isEmpty()) {
+                String folder = "diff_" + format.format(new Date(time));
+                store.writeDiffs(folder, diffs);
+                expected.put(folder, new LinkedHashMap<>(current));
+            }
+        }
+        return time + 60 * 1000L;
+    }
+
+    private Map<String, String> storeVersion(SnapshotStore store, long time, Map<String, String> current) throws IOException {
+        VersionIndex index = new VersionIndex();
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (Map.Entry<String, String> file : current.entrySet()) {
+            contents.put(file.getKey(), file.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, String> hashes = store.putBlobs(contents);
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            index.put(content.getKey(), new VersionIndex.Entry(hashes.get(content.getKey()), content.getValue().length, time));
+        }
+        String versionName = "Version_" + format.format(new Date(time));
+        store.writeManifest(versionName, index);
+        store.getHistory().recordVersion(time, index);
+        expected.put(versionName, new LinkedHashMap<>(current));
+        baseContents.put(versionName, new LinkedHashMap<>(current));
+        return new LinkedHashMap<>(current);
+    }
+
+    private static String diff(Path root, String relativePath, String original, String revised) throws IOException {
+        List<String> originalLines = SnapshotStore.toLines(original.getBytes(StandardCharsets.UTF_8));
+        List<String> revisedLines = SnapshotStore.toLines(revised.getBytes(StandardCharsets.UTF_8));
+        return String.join("\n", UnifiedDiffUtils.generateUnifiedDiff(root + "/snapshot/version/" + relativePath,
+                root + "/" + relativePath, originalLines, HistogramDiff.diff(originalLines, revisedLines), 1));
+    }
+
+    private static TreeSet<String> diffFolders(SnapshotStore store) throws IOException {
+        TreeSet<String> folders = new TreeSet<>();
+        for (String key : store.listKeys("diff/")) {
+            folders.add(key.split("/")[1]);
+        }
+        return folders;
+    }
+
+    private String baseVersion(String folder) {
+        String base = null;
+        for (String version : baseContents.keySet()) {
+            if (version.compareTo("Version_" + folder.substring("diff_".length())) <= 0) {
+                base = version;
+            }
+        }
+        assertFalse(base == null, folder);
+        return base;
+    }
+}
@@ -0,0 +1,87 @@
+package com.qiqv.demo3;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//
+// 按窗口生成的 diff 逐个 hunk 应用到旧内容上，要得到新内容：相邻窗口的 hunk 不能重叠
+//
+public class LargeFilesTest {
+
+    @Test
+    public void windowedDiffAppliesBackToCurrent() throws IOException {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> lines = new ArrayList<>();
+            int count = 20 + random.nextInt(200);
+            for (int i = 0; i < count; i++) {
+                lines.add(line(random));
+            }
+            String original = join(lines);
+            // 随机删除、插入、修改几段，差异经常落在窗口的切点附近
+            int edits = 1 + random.nextInt(count / 4);
+            for (int i = 0; i < edits; i++) {
+                int position = random.nextInt(lines.size() + 1);
+                int length = 1 + random.nextInt(4);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        for (int j = 0; j < length && position < lines.size(); j++) {
+                            lines.remove(position);
+                        }
+                        break;
+                    case 1:
+                        for (int j = 0; j < length; j++) {
+                            lines.add(position, line(random));
+                        }
+                        break;
+                    default:
+                        for (int j = 0; j < length && position + j < lines.size(); j++) {
+                            lines.set(position + j, line(random));
+                        }
+                }
+            }
+            String current = join(lines);
+
+            LargeFiles.Settings settings = new LargeFiles.Settings();
+            settings.windowLines = 4 + random.nextInt(20);
+            String diff = LargeFiles.diff(stream(original), stream(current), "old.txt", "new.txt", settings);
+            if (diff == null) {
+                assertEquals(original, current, "第 " + round + " 轮没有 diff");
+                continue;
+            }
+            StringWriter patched = new StringWriter();
+            try (ShowDiff.HunkReader hunks = new ShowDiff.HunkReader(new BufferedReader(new StringReader(diff)))) {
+                ShowDiff.applyPatch(new BufferedReader(new StringReader(original)), hunks, patched);
+            }
+            assertEquals(current, patched.toString(), "第 " + round + " 轮，窗口 " + settings.windowLines + " 行\n" + diff);
+        }
+    }
+
+    // 取值很少的行，两边有很多相同的行，差异之间常常只隔一两行
+    private static String line(Random random) {
+        return "line " + random.nextInt(8);
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,144 @@
+package com.qiqv.demo3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//
+// 存储方式从 snapshot/pack/history.conf 读取，两种方式保存的每个状态（包括不是 UTF-8 的文本）都要能逐字节还原
+//
+public class VersionHistoryTest {
+    private static final String PATH = "src/Main.java";
+
+    @TempDir
+    Path projectRoot;
+
+    @Test
+    public void defaultsToReverseDelta() throws IOException {
+        Path snapshotRoot = projectRoot.resolve("snapshot");
+        assertEquals(VersionHistory.StorageMode.REVERSE_DELTA, VersionHistory.loadStorageMode(snapshotRoot));
+        writeConfig(snapshotRoot, "# 没有写存储方式\nstorageMode=SIDEWAYS\n");
+        assertEquals(VersionHistory.StorageMode.REVERSE_DELTA, VersionHistory.loadStorageMode(snapshotRoot));
+    }
+
+    @Test
+    public void restoresEveryStateInBothModes() throws IOException {
+        Map<String, Function<List<String>, byte[]>> encodings = new LinkedHashMap<>();
+        encodings.put("UTF-8", VersionHistoryTest::utf8);
+        encodings.put("GBK", VersionHistoryTest::gbkWithStrayBytes); // 反向增量模式每一轮都改写上一个关键帧，同样不能改变字节
+        for (VersionHistory.StorageMode mode : VersionHistory.StorageMode.values()) {
+            for (Map.Entry<String, Function<List<String>, byte[]>> encoding : encodings.entrySet()) {
+                Path snapshotRoot = projectRoot.resolve(mode.name() + "-" + encoding.getKey()).resolve("snapshot");
+                writeConfig(snapshotRoot, "# 文件历史\nstorageMode=" + mode.name() + "\n");
+                SnapshotStore store = SnapshotStore.forRoot(snapshotRoot);
+                assertEquals(mode, store.getHistory().getStorageMode());
+
+                List<Long> timestamps = new ArrayList<>();
+                List<byte[]> states = new ArrayList<>();
+                capture(store, encoding.getValue(), timestamps, states);
+
+                // 记录链日志中出现的记录类型要符合配置的存储方式
+                String log = readLog(snapshotRoot);
+                boolean hasForward = log.contains("\t" + VersionHistory.DELTA + "\t");
+                boolean hasReverse = log.contains("\t" + VersionHistory.REVERSE + "\t");
+                if (mode == VersionHistory.StorageMode.FORWARD_DELTA) {
+                    assertTrue(hasForward, "FORWARD_DELTA 应该写入正向增量");
+                    assertFalse(hasReverse, "FORWARD_DELTA 不应该写入反向增量");
+                } else {
+                    assertTrue(hasReverse, "REVERSE_DELTA 应该写入反向增量");
+                    assertFalse(hasForward, "REVERSE_DELTA 不应该写入正向增量");
+                }
+                assertRestores(store, snapshotRoot, timestamps, states, mode + " " + encoding.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void forwardDeltasKeepNonUtf8BytesExact() throws IOException {
+        Path snapshotRoot = projectRoot.resolve("gbk").resolve("snapshot");
+        writeConfig(snapshotRoot, "storageMode=FORWARD_DELTA\n");
+        SnapshotStore store = SnapshotStore.forRoot(snapshotRoot);
+
+        List<Long> timestamps = new ArrayList<>();
+        List<byte[]> states = new ArrayList<>();
+        capture(store, VersionHistoryTest::gbkWithStrayBytes, timestamps, states);
+
+        assertTrue(readLog(snapshotRoot).contains("\t" + VersionHistory.DELTA + "\t"), "不是 UTF-8 的文本同样写入正向增量");
+        assertRestores(store, snapshotRoot, timestamps, states, "GBK");
+    }
+
+    // 40 轮保存，每一轮改一行，不时增加一行，增量很小
+    private static void capture(SnapshotStore store, Function<List<String>, byte[]> encoder,
+                                List<Long> timestamps, List<byte[]> states) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            lines.add("第 " + i + " 行");
+        }
+        long time = 1_700_000_000_000L;
+        for (int round = 0; round < 40; round++) {
+            lines.set((round * 7) % lines.size(), "修改 " + round);
+            if (round % 5 == 0) {
+                lines.add("新增 " + round);
+            }
+            byte[] content = encoder.apply(lines);
+            VersionHistory.Pending pending = store.getHistory().prepare(PATH, time, content);
+            store.getHistory().commit(Collections.singletonList(pending));
+            timestamps.add(time);
+            states.add(content);
+            time += 60 * 1000L;
+        }
+    }
+
+    // 重新读取记录链日志，逐个时刻逐字节还原
+    private static void assertRestores(SnapshotStore store, Path snapshotRoot, List<Long> timestamps,
+                                       List<byte[]> states, String name) throws IOException {
+        VersionHistory reopened = new VersionHistory(store, snapshotRoot.resolve("pack").resolve("history.log"));
+        for (int i = 0; i < timestamps.size(); i++) {
+            assertArrayEquals(states.get(i), reopened.reconstruct(PATH, timestamps.get(i) + 999), name + " 第 " + i + " 轮");
+        }
+        assertArrayEquals(states.get(states.size() - 1), reopened.readLatest(PATH), name + " 最新内容");
+    }
+
+    private static byte[] utf8(List<String> lines) {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // GBK 编码的文本，修改过的行末尾再夹一个 UTF-8 和 GBK 中都无效的字节
+    private static byte[] gbkWithStrayBytes(List<String> lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String line : lines) {
+            bytes.writeBytes(line.getBytes(Charset.forName("GBK")));
+            if (line.startsWith("修改")) {
+                bytes.write(0xFF);
+            }
+            bytes.write('\n');
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String readLog(Path snapshotRoot) throws IOException {
+        return new String(Files.readAllBytes(snapshotRoot.resolve("pack").resolve("history.log")), StandardCharsets.UTF_8);
+    }
+
+    private static void writeConfig(Path snapshotRoot, String text) throws IOException {
+        Files.createDirectories(snapshotRoot.resolve("pack"));
+        Files.write(snapshotRoot.resolve("pack").resolve("history.conf"), text.getBytes(StandardCharsets.UTF_8));
+    }
+}